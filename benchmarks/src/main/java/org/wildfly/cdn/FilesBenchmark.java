@@ -0,0 +1,86 @@
+package org.wildfly.cdn;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unpacking of a synthetic resources jar, from a file and from a stream, and plain stream copying.
+ *
+ * @since 18/10/26
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilesBenchmark {
+
+    @Param({"500"})
+    public int entries;
+
+    @Param({"16384"})
+    public int entrySize;
+
+    private byte[] jar;
+    private File workDir;
+    private File jarFile;
+    private File destination;
+
+    @Setup
+    public void setUp() throws IOException {
+        jar = Fixtures.resourcesJar(entries, entrySize);
+        workDir = java.nio.file.Files.createTempDirectory("files-benchmark").toFile();
+        jarFile = new File(workDir, "release-stream-resources.jar");
+        java.nio.file.Files.write(jarFile.toPath(), jar);
+    }
+
+    @Setup(Level.Invocation)
+    public void nextDestination() {
+        destination = new File(workDir, "release-" + System.nanoTime());
+    }
+
+    @TearDown(Level.Invocation)
+    public void removeDestination() throws IOException {
+        if (destination.exists()) {
+            Files.deleteRecursive(destination);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteRecursive(workDir);
+    }
+
+    @Benchmark
+    public boolean unzipJar() {
+        return Files.unzipJar(destination.getAbsolutePath(), jarFile.getAbsolutePath());
+    }
+
+    @Benchmark
+    public File unpackStream() throws IOException {
+        Files.unpackStream(new ByteArrayInputStream(jar), destination.getAbsolutePath());
+        return destination;
+    }
+
+    @Benchmark
+    public void pipe() throws IOException {
+        Files.pipe(new ByteArrayInputStream(jar), Fixtures.DISCARD);
+    }
+}
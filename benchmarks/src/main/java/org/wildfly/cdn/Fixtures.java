@@ -0,0 +1,71 @@
+package org.wildfly.cdn;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Test data shared by the benchmarks.
+ *
+ * @since 18/10/26
+ */
+final class Fixtures {
+
+    /**
+     * Swallows everything written to it.
+     */
+    static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    private Fixtures() {
+    }
+
+    static byte[] read(String resource) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = Fixtures.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IOException("Fixture " + resource + " not found");
+            }
+            Files.pipe(in, out);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Builds a resources jar resembling a HAL build: mostly scripts and stylesheets below {@code app/}.
+     */
+    static byte[] resourcesJar(int entries, int entrySize) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+            out.putNextEntry(new ZipEntry("app/"));
+            out.closeEntry();
+            for (int i = 0; i < entries; i++) {
+                out.putNextEntry(new ZipEntry("app/" + i + (i % 4 == 0 ? ".cache.css" : ".cache.js")));
+                out.write(content(i, entrySize));
+                out.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] content(int seed, int size) {
+        StringBuilder content = new StringBuilder(size);
+        int line = seed;
+        while (content.length() < size) {
+            content.append("function f").append(line).append("(a,b){return a*").append(line++ % 97).append("+b;}\n");
+        }
+        content.setLength(size);
+        return content.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,43 @@
+package org.wildfly.cdn;
+
+import com.github.zafarkhaja.semver.Version;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single version by the shape of its name: plain, released and pre-releases, which are the expensive ones
+ * since their qualifier is parsed by java-semver.
+ *
+ * @since 18/10/26
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseVersionBenchmark {
+
+    @Param({"2.5.1", "2.6.0.Final", "2.2.0.Beta1", "2.4.0.Beta1-redhat"})
+    private String name;
+
+    @Benchmark
+    public Version parseVersion() {
+        return Versions.parseVersion(name);
+    }
+
+    @Benchmark
+    public Version parseVersionUncached() {
+        return Versions.parse(name);
+    }
+}
@@ -0,0 +1,88 @@
+package org.wildfly.cdn;
+
+import com.github.zafarkhaja.semver.Version;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Version parsing and ordering, using the versions of the release listing.
+ * {@code parseVersion} measures the memoized parser as used on metadata refreshes, {@code parseVersionUncached} a single parse.
+ *
+ * @since 18/10/26
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VersionsBenchmark {
+
+    private String[] names;
+    private List<VersionedResource> resources;
+
+    @Setup
+    public void setUp() throws IOException {
+        resources = new ArrayList<>();
+        Xml.parseMetadata(new ByteArrayInputStream(Fixtures.read("/maven-metadata.xml")), resources::add);
+        Collections.shuffle(resources, new java.util.Random(42));
+
+        names = new String[resources.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = resources.get(i).getResourceName();
+        }
+    }
+
+    @Benchmark
+    public void parseVersion(Blackhole blackhole) {
+        for (String name : names) {
+            Version version = Versions.parseVersion(name);
+            blackhole.consume(version);
+        }
+    }
+
+    @Benchmark
+    public void parseVersionUncached(Blackhole blackhole) {
+        for (String name : names) {
+            blackhole.consume(Versions.parse(name));
+        }
+    }
+
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public void ordinalIndexOf(Blackhole blackhole) {
+        for (String name : names) {
+            blackhole.consume(Versions.ordinalIndexOf(name, ".", 3));
+        }
+    }
+
+    @Benchmark
+    public void parseDate(Blackhole blackhole) {
+        for (int i = 0; i < names.length; i++) {
+            blackhole.consume(Versions.parseDate("2014-08-20 08:44:13.0 UTC"));
+        }
+    }
+
+    @Benchmark
+    public List<VersionedResource> sortVersionedResources() {
+        List<VersionedResource> sorted = new ArrayList<>(resources);
+        Collections.sort(sorted);
+        return sorted;
+    }
+}
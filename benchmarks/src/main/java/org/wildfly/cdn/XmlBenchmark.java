@@ -0,0 +1,50 @@
+package org.wildfly.cdn;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of the release and snapshot listings.
+ *
+ * @since 18/10/26
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XmlBenchmark {
+
+    private byte[] releases;
+    private byte[] snapshots;
+
+    @Setup
+    public void setUp() throws IOException {
+        releases = Fixtures.read("/maven-metadata.xml");
+        snapshots = Fixtures.read("/snapshot-metadata.xml");
+    }
+
+    @Benchmark
+    public void parseMetadata(Blackhole blackhole) {
+        Xml.parseMetadata(new ByteArrayInputStream(releases), blackhole::consume);
+    }
+
+    @Benchmark
+    public VersionedResource parseSnapshotMetadata() {
+        return Xml.parseSnapshotMetadata(new ByteArrayInputStream(snapshots), "2.4.0-SNAPSHOT");
+    }
+}
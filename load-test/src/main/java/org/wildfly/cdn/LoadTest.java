@@ -0,0 +1,307 @@
+package org.wildfly.cdn;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Starts the proxy in its own JVM against a {@link StubNexus} and drives a mixed workload against it.
+ * <p>
+ * Every worker thread picks its next request from the configured mix, with a fixed seed so that runs are
+ * comparable. Throughput and latency percentiles are reported per kind of request once the run is over.
+ * Requests made during the warmup are not recorded.
+ * <p>
+ * Configured with system properties:
+ * <ul>
+ * <li>load.threads: concurrent clients (default 32)</li>
+ * <li>load.duration: seconds to record (default 30)</li>
+ * <li>load.warmup: seconds to run before recording (default 5)</li>
+ * <li>load.mix: weights of the requests (default latest=30,releases=15,release=20,cold=5,snapshot=10,static=20)</li>
+ * <li>load.latency: milliseconds the stub delays every response (default 20)</li>
+ * <li>load.bandwidth: bytes per second of every stub response, 0 for unlimited (default 10 MB)</li>
+ * <li>load.jar.entries, load.jar.entrySize: shape of the generated resources jars (default 200 files of 4 KB)</li>
+ * <li>load.proxyArgs: additional JVM arguments of the proxy, i.e. {@code -Dproxy.unpack.mode=jar}</li>
+ * </ul>
+ *
+ * @since 18/10/26
+ */
+public class LoadTest {
+
+    enum Operation {
+        /** /latest */
+        LATEST,
+        /** /releases */
+        RELEASES,
+        /** /release/:version of a version that has been requested before */
+        RELEASE,
+        /** /release/:version of a version that has not been requested yet, it is downloaded */
+        COLD,
+        /** /snapshot/:version */
+        SNAPSHOT,
+        /** a file of a version that has been requested before */
+        STATIC
+    }
+
+    private static final String SNAPSHOT_VERSION = "2.4.0-SNAPSHOT";
+    private static final long SEED = 42;
+
+    private final String baseUrl;
+    private final Operation[] mix;
+    private final List<String> cold;
+    private final AtomicInteger nextCold = new AtomicInteger();
+    private final List<String> warm = new CopyOnWriteArrayList<>();
+    private volatile boolean recording;
+    private volatile boolean running = true;
+
+    LoadTest(String baseUrl, Operation[] mix, List<String> versions) {
+        this.baseUrl = baseUrl;
+        this.mix = mix;
+        this.cold = new ArrayList<>(versions);
+        Collections.shuffle(cold, new Random(SEED));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = Integer.getInteger("load.threads", 32);
+        int duration = Integer.getInteger("load.duration", 30);
+        int warmup = Integer.getInteger("load.warmup", 5);
+        Operation[] mix = parseMix(System.getProperty("load.mix", "latest=30,releases=15,release=20,cold=5,snapshot=10,static=20"));
+
+        // one kept alive connection per client
+        System.setProperty("http.maxConnections", String.valueOf(threads));
+
+        StubNexus nexus = new StubNexus(
+                Long.getLong("load.latency", 20),
+                Long.getLong("load.bandwidth", 10 * 1024 * 1024),
+                Integer.getInteger("load.jar.entries", 200),
+                Integer.getInteger("load.jar.entrySize", 4096));
+        nexus.start();
+
+        File workDir = java.nio.file.Files.createTempDirectory("load-test").toFile();
+        int port = freePort();
+        Process proxy = startProxy(nexus, workDir, port);
+        try {
+            String baseUrl = "http://localhost:" + port;
+            awaitReady(baseUrl + "/latest", proxy);
+            List<String> versions = nexus.getReleases();
+            System.out.println("Proxy on " + baseUrl + ", " + versions.size() + " releases, logging to " + new File(workDir, "proxy.log"));
+
+            LoadTest test = new LoadTest(baseUrl, mix, versions);
+            Report report = test.run(threads, warmup, duration);
+            report.print(System.out);
+            System.out.println("Stub Nexus: " + nexus.getRequests() + " requests, " + nexus.getBytes() / 1024 + " KB");
+        } finally {
+            proxy.destroy();
+            proxy.waitFor(10, TimeUnit.SECONDS);
+            nexus.stop();
+        }
+    }
+
+    Report run(int threads, int warmupSeconds, int durationSeconds) throws InterruptedException {
+        List<Worker> workers = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            Worker worker = new Worker(new Random(SEED + i));
+            workers.add(worker);
+            Thread thread = new Thread(() -> {
+                try {
+                    worker.run();
+                } finally {
+                    done.countDown();
+                }
+            }, "load-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        TimeUnit.SECONDS.sleep(warmupSeconds);
+        recording = true;
+        long start = System.nanoTime();
+        TimeUnit.SECONDS.sleep(durationSeconds);
+        recording = false;
+        long elapsed = System.nanoTime() - start;
+        running = false;
+        done.await(30, TimeUnit.SECONDS);
+
+        Report report = new Report(elapsed);
+        for (Worker worker : workers) {
+            report.add(worker.samples, worker.errors);
+        }
+        return report;
+    }
+
+    private final class Worker implements Runnable {
+        private final Random random;
+        private final Map<Operation, Report.Samples> samples = new EnumMap<>(Operation.class);
+        private final Map<Operation, Integer> errors = new EnumMap<>(Operation.class);
+
+        Worker(Random random) {
+            this.random = random;
+            for (Operation operation : Operation.values()) {
+                samples.put(operation, new Report.Samples());
+                errors.put(operation, 0);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                Operation operation = mix[random.nextInt(mix.length)];
+                String version = null;
+                String path;
+                switch (operation) {
+                    case LATEST:
+                        path = "/latest";
+                        break;
+                    case RELEASES:
+                        path = "/releases";
+                        break;
+                    case SNAPSHOT:
+                        path = "/snapshot/" + SNAPSHOT_VERSION;
+                        break;
+                    default:
+                        int next = operation == Operation.COLD || warm.isEmpty() ? nextCold.getAndIncrement() : -1;
+                        if (next >= 0 && next < cold.size()) {
+                            operation = Operation.COLD;
+                            version = cold.get(next);
+                        } else if (warm.isEmpty()) {
+                            // every download failed so far, nothing to pick from
+                            pause();
+                            continue;
+                        } else {
+                            // all versions have been requested, cold requests turn into warm ones
+                            version = warm.get(random.nextInt(warm.size()));
+                            operation = operation == Operation.STATIC ? Operation.STATIC : Operation.RELEASE;
+                        }
+                        path = operation == Operation.STATIC ? "/" + version + "/index.html" : "/release/" + version;
+                }
+
+                long start = System.nanoTime();
+                int status;
+                try {
+                    status = get(baseUrl + path);
+                } catch (IOException e) {
+                    status = -1;
+                }
+                long latency = System.nanoTime() - start;
+
+                boolean success = status >= 200 && status < 400;
+                if (success && operation == Operation.COLD) {
+                    warm.add(version);
+                }
+                if (recording) {
+                    samples.get(operation).add(latency);
+                    if (!success) {
+                        errors.merge(operation, 1, Integer::sum);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void pause() {
+        try {
+            TimeUnit.MILLISECONDS.sleep(10);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Issues a GET request without following redirects and reads the body, so that the connection is kept alive
+     */
+    private static int get(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setInstanceFollowRedirects(false);
+        connection.setConnectTimeout(5000);
+        connection.setReadTimeout(60000);
+        int status = connection.getResponseCode();
+        InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (body != null) {
+            try (InputStream in = body) {
+                byte[] buffer = new byte[8192];
+                while (in.read(buffer) != -1) {
+                    // discard
+                }
+            }
+        }
+        return status;
+    }
+
+    private static Process startProxy(StubNexus nexus, File workDir, int port) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("-Djava.io.tmpdir=" + workDir.getAbsolutePath());
+        command.add("-Dproxy.repository.releases=" + nexus.getReleaseRepository());
+        command.add("-Dproxy.repository.snapshots=" + nexus.getSnapshotRepository());
+        String proxyArgs = System.getProperty("load.proxyArgs", "").trim();
+        if (!proxyArgs.isEmpty()) {
+            command.addAll(Arrays.asList(proxyArgs.split("\\s+")));
+        }
+        command.add(Proxy.class.getName());
+
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.environment().put("OPENSHIFT_INTERNAL_IP", "localhost");
+        builder.environment().put("OPENSHIFT_INTERNAL_PORT", String.valueOf(port));
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(new File(workDir, "proxy.log"));
+        return builder.start();
+    }
+
+    private static void awaitReady(String url, Process proxy) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while (System.nanoTime() < deadline) {
+            if (!proxy.isAlive()) {
+                throw new IllegalStateException("The proxy exited with " + proxy.exitValue());
+            }
+            try {
+                if (get(url) == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // not listening yet
+            }
+            TimeUnit.MILLISECONDS.sleep(200);
+        }
+        throw new IllegalStateException("The proxy didn't start within a minute");
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Expands {@code latest=30,releases=15,...} into an array with one slot per unit of weight
+     */
+    static Operation[] parseMix(String mix) {
+        List<Operation> slots = new ArrayList<>();
+        for (String part : mix.split(",")) {
+            String[] weight = part.trim().split("=");
+            Operation operation = Operation.valueOf(weight[0].trim().toUpperCase());
+            for (int i = Integer.parseInt(weight[1].trim()); i > 0; i--) {
+                slots.add(operation);
+            }
+        }
+        if (slots.isEmpty()) {
+            throw new IllegalArgumentException("Empty mix " + mix);
+        }
+        return slots.toArray(new Operation[0]);
+    }
+}
@@ -0,0 +1,100 @@
+package org.wildfly.cdn;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and latency percentiles of a load test run, per kind of request.
+ *
+ * @since 18/10/26
+ */
+class Report {
+
+    /**
+     * Latencies in nanoseconds, recorded by a single thread
+     */
+    static final class Samples {
+        private long[] values = new long[1024];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void addAll(Samples other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.values[i]);
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * @return the value below which the given fraction of the samples lie, nearest rank
+         */
+        long percentile(double fraction) {
+            if (size == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(fraction * size);
+            return sorted[Math.max(0, Math.min(size, rank) - 1)];
+        }
+    }
+
+    private final long elapsedNanos;
+    private final Map<LoadTest.Operation, Samples> samples = new EnumMap<>(LoadTest.Operation.class);
+    private final Map<LoadTest.Operation, Integer> errors = new EnumMap<>(LoadTest.Operation.class);
+
+    Report(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+        for (LoadTest.Operation operation : LoadTest.Operation.values()) {
+            samples.put(operation, new Samples());
+            errors.put(operation, 0);
+        }
+    }
+
+    void add(Map<LoadTest.Operation, Samples> workerSamples, Map<LoadTest.Operation, Integer> workerErrors) {
+        for (LoadTest.Operation operation : LoadTest.Operation.values()) {
+            samples.get(operation).addAll(workerSamples.get(operation));
+            errors.merge(operation, workerErrors.get(operation), Integer::sum);
+        }
+    }
+
+    void print(PrintStream out) {
+        double seconds = elapsedNanos / 1e9;
+        out.println(String.format("%-10s %9s %7s %10s %9s %9s %9s %9s",
+                "request", "count", "errors", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms"));
+        Samples all = new Samples();
+        int allErrors = 0;
+        for (LoadTest.Operation operation : LoadTest.Operation.values()) {
+            Samples recorded = samples.get(operation);
+            if (recorded.size() > 0) {
+                print(out, operation.name().toLowerCase(), recorded, errors.get(operation), seconds);
+                all.addAll(recorded);
+                allErrors += errors.get(operation);
+            }
+        }
+        print(out, "total", all, allErrors, seconds);
+    }
+
+    private static void print(PrintStream out, String name, Samples recorded, int errors, double seconds) {
+        out.println(String.format("%-10s %9d %7d %10.1f %9.2f %9.2f %9.2f %9.2f",
+                name, recorded.size(), errors, recorded.size() / seconds,
+                millis(recorded.percentile(0.5)), millis(recorded.percentile(0.99)),
+                millis(recorded.percentile(0.999)), millis(recorded.percentile(1.0))));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,221 @@
+package org.wildfly.cdn;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A local stand-in for repository.jboss.org.
+ * <p>
+ * Serves the release and snapshot listings of {@code src/test/resources} with their links pointing back to the stub,
+ * and a generated resources jar (plus its {@code .sha1}) for every version. Every response is delayed by a fixed
+ * latency, and bodies are sent at a limited bandwidth, so that runs don't depend on the network to Nexus.
+ *
+ * @since 18/10/26
+ */
+class StubNexus {
+
+    private static final String NEXUS = "https://repository.jboss.org/nexus/service/local/repositories/";
+    private static final String REPOSITORIES = "/nexus/service/local/repositories/";
+    private static final String RELEASES = REPOSITORIES + "releases/content/org/jboss/hal/release-stream/";
+    private static final String SNAPSHOTS = REPOSITORIES + "snapshots/content/org/jboss/as/jboss-as-console/";
+
+    private static final String JAR_SUFFIX = "-resources.jar";
+    private static final String SHA1_SUFFIX = ".sha1";
+
+    private final long latencyMs;
+    private final long bytesPerSecond;
+    private final int jarEntries;
+    private final int entrySize;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "stub-nexus");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ConcurrentHashMap<String, byte[]> jars = new ConcurrentHashMap<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    private byte[] releaseListing;
+    private byte[] snapshotListing;
+
+    /**
+     * @param latencyMs delay before every response
+     * @param bytesPerSecond bandwidth of every response body, 0 for unlimited
+     * @param jarEntries number of files in a generated resources jar
+     * @param entrySize size of every file in a generated resources jar
+     */
+    StubNexus(long latencyMs, long bytesPerSecond, int jarEntries, int entrySize) throws IOException {
+        this.latencyMs = latencyMs;
+        this.bytesPerSecond = bytesPerSecond;
+        this.jarEntries = jarEntries;
+        this.entrySize = entrySize;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 128);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    void start() throws IOException {
+        String base = "http://localhost:" + server.getAddress().getPort() + REPOSITORIES;
+        releaseListing = rewrite("/maven-metadata.xml", base);
+        snapshotListing = rewrite("/snapshot-metadata.xml", base);
+        server.start();
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    String getReleaseRepository() {
+        return "http://localhost:" + server.getAddress().getPort() + RELEASES;
+    }
+
+    String getSnapshotRepository() {
+        return "http://localhost:" + server.getAddress().getPort() + SNAPSHOTS;
+    }
+
+    /**
+     * @return the released versions the stub lists
+     */
+    List<String> getReleases() {
+        List<String> versions = new ArrayList<>();
+        Xml.parseMetadata(new ByteArrayInputStream(releaseListing), resource -> versions.add(resource.getResourceName()));
+        return versions;
+    }
+
+    long getRequests() {
+        return requests.get();
+    }
+
+    long getBytes() {
+        return bytes.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            requests.incrementAndGet();
+            Thread.sleep(latencyMs);
+
+            String path = exchange.getRequestURI().getPath();
+            byte[] body = null;
+            String type = "application/xml";
+            if (path.equals(RELEASES)) {
+                body = releaseListing;
+            } else if (path.equals(SNAPSHOTS + "2.4.0-SNAPSHOT") || path.equals(SNAPSHOTS + "2.4.0-SNAPSHOT/")) {
+                // the only snapshot the fixture lists
+                body = snapshotListing;
+            } else if (path.endsWith(JAR_SUFFIX)) {
+                body = jar(path);
+                type = "application/java-archive";
+            } else if (path.endsWith(JAR_SUFFIX + SHA1_SUFFIX)) {
+                body = sha1(jar(path.substring(0, path.length() - SHA1_SUFFIX.length()))).getBytes(StandardCharsets.US_ASCII);
+                type = "text/plain";
+            }
+
+            if (body == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            exchange.getResponseHeaders().add("Content-Type", type);
+            exchange.sendResponseHeaders(200, body.length);
+            InputStream in = new ByteArrayInputStream(body);
+            if (bytesPerSecond > 0) {
+                in = new Throttle(bytesPerSecond).wrap(in);
+            }
+            try (OutputStream out = exchange.getResponseBody()) {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                    bytes.addAndGet(n);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private byte[] jar(String path) {
+        return jars.computeIfAbsent(path, key -> {
+            try {
+                return resourcesJar(key.substring(key.lastIndexOf('/') + 1));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    /**
+     * A resources jar resembling a HAL build: an index.html and mostly scripts and stylesheets below {@code app/}
+     */
+    private byte[] resourcesJar(String name) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+            out.putNextEntry(new ZipEntry("index.html"));
+            out.write(("<html><head><title>" + name + "</title></head><body></body></html>").getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("app/"));
+            out.closeEntry();
+            for (int i = 0; i < jarEntries; i++) {
+                out.putNextEntry(new ZipEntry("app/" + i + (i % 4 == 0 ? ".cache.css" : ".cache.js")));
+                out.write(content(i, entrySize));
+                out.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] content(int seed, int size) {
+        StringBuilder content = new StringBuilder(size);
+        int line = seed;
+        while (content.length() < size) {
+            content.append("function f").append(line).append("(a,b){return a*").append(line++ % 97).append("+b;}\n");
+        }
+        content.setLength(size);
+        return content.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] rewrite(String resource, String base) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = StubNexus.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IOException("Fixture " + resource + " not found");
+            }
+            Files.pipe(in, out);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8).replace(NEXUS, base).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String sha1(byte[] content) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(content)) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
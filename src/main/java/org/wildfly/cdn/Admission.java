@@ -0,0 +1,238 @@
+package org.wildfly.cdn;
+
+import spark.Response;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control for work that has to go upstream: an adaptive concurrency limit and a bounded queue.
+ * <p>
+ * The limit follows the latency of the admitted requests (AIMD). Every request that completes within the target
+ * latency raises it by {@code 1/limit}, so by about one per round of requests, up to the configured maximum.
+ * A request that takes longer, or gives up waiting, cuts it by a quarter, at most once per round: requests that
+ * were admitted before the last cut don't cut it again. Unless a fixed target is configured, the target is a
+ * multiple of the median latency of the recent requests, so that downloads that are slow because the artefacts are
+ * large don't count as overload, only those that are slow compared to their peers. Requests beyond the limit wait in a bounded queue for
+ * a short time. Once the queue is full, or the wait is over, they are rejected right away and answered with a 503
+ * and a {@code Retry-After} derived from the recent latency.
+ * <p>
+ * Only work that misses the cache is admitted, requests for content that is already available never see the controller.
+ *
+ * @since 18/10/26
+ */
+public class Admission {
+
+    private static final double DECREASE = 0.75;
+
+    /**
+     * Weight of a new sample in the moving average of the latency
+     */
+    private static final double SMOOTHING = 0.125;
+
+    /**
+     * With an adaptive target, requests taking longer than this multiple of the median latency lower the limit
+     */
+    private static final int TOLERANCE = 4;
+
+    /**
+     * Number of recent latencies the median is taken from, and how many of them are needed before it's used
+     */
+    private static final int WINDOW = 32;
+    private static final int MIN_SAMPLES = 8;
+
+    /**
+     * Lower bound of an adaptive target, below it differences in latency are noise rather than overload
+     */
+    private static final long MIN_TARGET_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * A request that was admitted. Must be released exactly once.
+     */
+    public final class Permit {
+        private final long start = System.nanoTime();
+        private boolean released;
+
+        /**
+         * @param timedOut whether the request gave up waiting for its work, which counts as overload regardless of the latency
+         */
+        public void release(boolean timedOut) {
+            release(System.nanoTime() - start, timedOut);
+        }
+
+        void release(long latencyNanos, boolean timedOut) {
+            if (released) {
+                return;
+            }
+            released = true;
+            Admission.this.release(start, latencyNanos, timedOut);
+        }
+    }
+
+    private final int maxLimit;
+    private final int queueSize;
+    private final long queueWaitNanos;
+    private final long targetNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final Metrics.Counter queueFull;
+    private final Metrics.Counter queueTimeouts;
+    private final Metrics.Histogram queueWaits;
+
+    private double limit;
+    private int inFlight;
+    private int queued;
+    private long lastDecrease;
+    private double averageNanos;
+    private final long[] recent = new long[WINDOW];
+    private int samples;
+
+    /**
+     * @param route identifies this instance in the metrics
+     * @param maxLimit the highest concurrency limit, which is also where it starts
+     * @param queueSize requests that may wait for a free slot, beyond that they are rejected immediately
+     * @param queueWaitMs how long a request waits in the queue
+     * @param targetLatencyMs requests taking longer than this lower the limit, 0 for a multiple of the recent median latency
+     */
+    public Admission(String route, int maxLimit, int queueSize, long queueWaitMs, long targetLatencyMs) {
+        this.maxLimit = Math.max(1, maxLimit);
+        this.queueSize = Math.max(0, queueSize);
+        this.queueWaitNanos = TimeUnit.MILLISECONDS.toNanos(queueWaitMs);
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMs);
+        this.limit = this.maxLimit;
+        this.lastDecrease = System.nanoTime();
+
+        this.queueFull = Metrics.counter("proxy_admission_rejected_total",
+                "Requests rejected by the admission control", "route", route, "reason", "queue_full");
+        this.queueTimeouts = Metrics.counter("proxy_admission_rejected_total",
+                "Requests rejected by the admission control", "route", route, "reason", "queue_timeout");
+        this.queueWaits = Metrics.histogram("proxy_admission_queue_seconds",
+                "Time admitted requests spent in the queue", "route", route);
+        Metrics.gauge("proxy_admission_limit", "Current concurrency limit of the admission control",
+                this::getLimit, "route", route);
+        Metrics.gauge("proxy_admission_in_flight", "Requests admitted and not yet completed",
+                this::getInFlight, "route", route);
+    }
+
+    /**
+     * Admits a request if it's below the limit, or once a slot frees up while it waits in the queue.
+     *
+     * @return the permit, or null if the request is rejected
+     */
+    public Permit tryAcquire() throws InterruptedException {
+        lock.lock();
+        try {
+            if (inFlight < (int) limit) {
+                inFlight++;
+                return new Permit();
+            }
+            if (queued >= queueSize) {
+                queueFull.inc();
+                return null;
+            }
+
+            long start = System.nanoTime();
+            long remaining = queueWaitNanos;
+            queued++;
+            try {
+                while (inFlight >= (int) limit) {
+                    if (remaining <= 0) {
+                        queueTimeouts.inc();
+                        return null;
+                    }
+                    remaining = available.awaitNanos(remaining);
+                }
+                inFlight++;
+            } finally {
+                queued--;
+            }
+            queueWaits.recordSince(start);
+            return new Permit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Answers a request that was rejected, or that can't be served yet, with a 503 and a hint when to retry
+     */
+    public void retryLater(Response response) {
+        response.status(503);
+        response.header("Retry-After", String.valueOf(getRetryAfterSeconds()));
+    }
+
+    /**
+     * @return seconds until a slot is likely to be free: the average latency, at least one second
+     */
+    public long getRetryAfterSeconds() {
+        lock.lock();
+        try {
+            return Math.max(1, (long) Math.ceil(averageNanos / TimeUnit.SECONDS.toNanos(1)));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the latency beyond which a request counts as overload, never reached before enough requests completed
+     */
+    private long target() {
+        if (targetNanos > 0) {
+            return targetNanos;
+        }
+        int count = Math.min(samples, WINDOW);
+        if (count < MIN_SAMPLES) {
+            return Long.MAX_VALUE;
+        }
+        long[] sorted = Arrays.copyOf(recent, count);
+        Arrays.sort(sorted);
+        return Math.max(MIN_TARGET_NANOS, TOLERANCE * sorted[count / 2]);
+    }
+
+    private void release(long startNanos, long latencyNanos, boolean timedOut) {
+        lock.lock();
+        try {
+            inFlight--;
+            averageNanos = averageNanos == 0 ? latencyNanos : averageNanos + SMOOTHING * (latencyNanos - averageNanos);
+
+            if (timedOut || latencyNanos > target()) {
+                // admitted after the last cut, so this is news about the current limit
+                if (startNanos - lastDecrease > 0) {
+                    limit = Math.max(1, limit * DECREASE);
+                    lastDecrease = System.nanoTime();
+                }
+            } else {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+            if (!timedOut) {
+                recent[samples++ % WINDOW] = latencyNanos;
+            }
+
+            if (inFlight < (int) limit) {
+                available.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.wildfly.cdn;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Verifies a download against the checksum Nexus publishes next to every artefact ({@code .sha1}, or {@code .md5}).
+ * <p>
+ * The digest is computed from the bytes as they are read, so verifying doesn't need another pass over the file.
+ *
+ * @since 18/10/26
+ */
+final class Checksum {
+
+    private static final String[] ALGORITHMS = {"SHA-1", "MD5"};
+    private static final String[] EXTENSIONS = {".sha1", ".md5"};
+
+    private final String algorithm;
+    private final String expected;
+    private final MessageDigest digest;
+
+    private Checksum(String algorithm, String expected) {
+        this.algorithm = algorithm;
+        this.expected = expected;
+        try {
+            this.digest = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Fetches the checksum of an artefact, the first one published in the order of {@link #EXTENSIONS}.
+     * If Nexus has none, or it can't be fetched, every download of the artefact is accepted.
+     */
+    static Checksum fetch(String fileURL) {
+        for (int i = 0; i < EXTENSIONS.length; i++) {
+            try (Upstream.Response response = Upstream.get(fileURL + EXTENSIONS[i])) {
+                if (response.getStatus() == 200) {
+                    return new Checksum(ALGORITHMS[i], parse(response.getBody()));
+                }
+            } catch (IOException e) {
+                // the checksum guards against corrupt downloads, failing to get it shouldn't fail the download
+                Log.warn("Failed to fetch the checksum of " + fileURL + ", it won't be verified", e);
+                return new Checksum(ALGORITHMS[0], null);
+            }
+        }
+        Log.warn("No checksum published for " + fileURL);
+        return new Checksum(ALGORITHMS[0], null);
+    }
+
+    /**
+     * The checksum file holds the hex digest, optionally followed by the file name
+     */
+    static String parse(InputStream in) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        Files.pipe(in, content);
+        String text = new String(content.toByteArray(), StandardCharsets.US_ASCII).trim();
+        if (text.isEmpty()) {
+            throw new IOException("Empty checksum");
+        }
+        int space = text.indexOf(' ');
+        return (space != -1 ? text.substring(0, space) : text).toLowerCase();
+    }
+
+    String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Starts over with the bytes that have been downloaded so far, i.e. before resuming a download
+     */
+    void restart(File downloaded) throws IOException {
+        digest.reset();
+        if (downloaded != null && downloaded.exists()) {
+            try (InputStream in = new DigestInputStream(new FileInputStream(downloaded), digest)) {
+                byte[] buffer = new byte[65536];
+                while (in.read(buffer) != -1) {
+                    // digested while reading
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a stream that adds every byte read to the digest
+     */
+    InputStream wrap(InputStream in) {
+        return new DigestInputStream(in, digest);
+    }
+
+    /**
+     * @throws IOException if the bytes read don't match the published checksum
+     */
+    void verify(String name) throws IOException {
+        String actual = ETags.hex(digest.digest());
+        if (expected != null && !expected.equals(actual)) {
+            throw new IOException(algorithm + " mismatch for " + name + ": expected " + expected + ", got " + actual);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package org.wildfly.cdn;
+
+/**
+ * Tunables of the proxy. All values can be overridden with system properties.
+ *
+ * @since 18/10/26
+ */
+public final class Config {
+
+    /**
+     * Nexus directory listing the released versions, i.e. a local stub for load tests
+     */
+    public static final String RELEASE_REPOSITORY = System.getProperty("proxy.repository.releases",
+            "https://repository.jboss.org/nexus/service/local/repositories/releases/content/org/jboss/hal/release-stream/");
+
+    /**
+     * Nexus directory listing the snapshot versions
+     */
+    public static final String SNAPSHOT_REPOSITORY = System.getProperty("proxy.repository.snapshots",
+            "https://repository.jboss.org/nexus/service/local/repositories/snapshots/content/org/jboss/as/jboss-as-console/");
+
+    /**
+     * How long the list of released versions is considered up to date
+     */
+    public static final long METADATA_EXPIRY_MS = Long.getLong("proxy.metadata.expiry", 3600000); // one hour
+
+    /**
+     * Number of distinct versions that may be downloaded and unpacked at the same time
+     */
+    public static final int DOWNLOAD_PARALLELISM = Integer.getInteger("proxy.download.parallelism", 4);
+
+    /**
+     * How long a request waits for a download (its own or a shared one) before giving up
+     */
+    public static final long DOWNLOAD_WAIT_MS = Long.getLong("proxy.download.wait", 5000);
+
+    /**
+     * Requests for releases and snapshots that may be in progress at the same time, each on its own thread
+     */
+    public static final int OFFLOAD_CONCURRENCY = Integer.getInteger("proxy.offload.concurrency", 64);
+
+    /**
+     * Highest number of release or snapshot downloads a route admits at the same time, the adaptive limit starts here
+     */
+    public static final int ADMISSION_LIMIT = Integer.getInteger("proxy.admission.limit", 2 * DOWNLOAD_PARALLELISM);
+
+    /**
+     * Requests that may wait for the admission of a download, any further ones are rejected immediately
+     */
+    public static final int ADMISSION_QUEUE = Integer.getInteger("proxy.admission.queue", 16);
+
+    /**
+     * Milliseconds a request waits in the admission queue before it is rejected
+     */
+    public static final long ADMISSION_QUEUE_WAIT_MS = Long.getLong("proxy.admission.queueWait", 500);
+
+    /**
+     * Downloads taking longer than this many milliseconds lower the admission limit, 0 to compare them with the recent downloads instead
+     */
+    public static final long ADMISSION_LATENCY_MS = Long.getLong("proxy.admission.latency", 0);
+
+    /**
+     * Number of the newest releases downloaded in the background before they are requested, 0 to disable
+     */
+    public static final int PREFETCH_COUNT = Integer.getInteger("proxy.prefetch.count", 3);
+
+    /**
+     * Bytes per second a background download may read
+     */
+    public static final long PREFETCH_RATE = Long.getLong("proxy.prefetch.rate", 2 * 1024 * 1024);
+
+    /**
+     * Unpack jars while they are downloaded ({@code stream}), or download them to {@code java.io.tmpdir} first ({@code file})
+     */
+    public static final boolean STREAMING_UNPACK = !"file".equals(System.getProperty("proxy.unpack.mode", "stream"));
+
+    /**
+     * Keep the downloaded jars and serve files straight out of them instead of unpacking them ({@code jar})
+     */
+    public static final boolean SERVE_FROM_JAR = "jar".equals(System.getProperty("proxy.unpack.mode"));
+
+    /**
+     * Threads writing, hashing and compressing the entries of jars being unpacked
+     */
+    public static final int UNPACK_PARALLELISM = Integer.getInteger("proxy.unpack.parallelism",
+            Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Bytes the unpacked versions in public_html may occupy on disk, 0 for no limit
+     */
+    public static final long DISK_BUDGET = Long.getLong("proxy.disk.budget", 1024 * 1024 * 1024);
+
+    /**
+     * Bytes of public_html content kept in memory
+     */
+    public static final long CACHE_BUDGET = Long.getLong("proxy.cache.budget", 64 * 1024 * 1024);
+
+    /**
+     * Files larger than this are always served from disk
+     */
+    public static final long CACHE_MAX_ENTRY = Long.getLong("proxy.cache.maxEntry", 16 * 1024 * 1024);
+
+    /**
+     * Keep cached content in direct buffers outside of the heap
+     */
+    public static final boolean CACHE_OFF_HEAP = Boolean.getBoolean("proxy.cache.offHeap");
+
+    /**
+     * Write precompressed {@code .gz} variants of text files when unpacking a release
+     */
+    public static final boolean GZIP = Boolean.parseBoolean(System.getProperty("proxy.gzip", "true"));
+
+    /**
+     * Files smaller than this are not worth compressing
+     */
+    public static final long GZIP_THRESHOLD = Long.getLong("proxy.gzip.threshold", 1024);
+
+    /**
+     * Seconds browsers and CDNs may cache snapshot content before revalidating it
+     */
+    public static final long SNAPSHOT_MAX_AGE = Long.getLong("proxy.snapshot.maxAge", 60);
+
+    /**
+     * Milliseconds between two checks for newer builds of the snapshots that are in use
+     */
+    public static final long SNAPSHOT_POLL_MS = Long.getLong("proxy.snapshot.poll", 60000);
+
+    /**
+     * Milliseconds to wait for a connection to Nexus, and for a free connection slot
+     */
+    public static final long UPSTREAM_CONNECT_TIMEOUT_MS = Long.getLong("proxy.upstream.connectTimeout", 5000);
+
+    /**
+     * Milliseconds a read from Nexus may block before the request fails
+     */
+    public static final long UPSTREAM_READ_TIMEOUT_MS = Long.getLong("proxy.upstream.readTimeout", 30000);
+
+    /**
+     * Concurrent requests per upstream host, which is also the number of idle connections kept alive
+     */
+    public static final int UPSTREAM_CONNECTIONS = Integer.getInteger("proxy.upstream.connections", 8);
+
+    /**
+     * How often a failed upstream request is retried
+     */
+    public static final int UPSTREAM_RETRIES = Integer.getInteger("proxy.upstream.retries", 2);
+
+    /**
+     * Milliseconds before the first retry, doubled for every further one
+     */
+    public static final long UPSTREAM_BACKOFF_MS = Long.getLong("proxy.upstream.backoff", 250);
+
+    /**
+     * Log records buffered for the writer thread, further ones are dropped until it catches up
+     */
+    public static final int LOG_BUFFER = Integer.getInteger("proxy.log.buffer", 8192);
+
+    /**
+     * Whether a record is written for every request
+     */
+    public static final boolean LOG_ACCESS = Boolean.parseBoolean(System.getProperty("proxy.log.access", "true"));
+
+    private Config() {
+    }
+}
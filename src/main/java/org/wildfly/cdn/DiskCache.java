@@ -0,0 +1,391 @@
+package org.wildfly.cdn;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Keeps the unpacked versions in public_html within a byte budget.
+ * <p>
+ * Tracks the size and last access of every version directory and deletes the least recently used
+ * versions once the budget is exceeded. The index is persisted in public_html, so that the access
+ * order survives a restart. Directories the index doesn't know about are picked up on startup.
+ *
+ * @since 18/10/26
+ */
+public class DiskCache {
+
+    static final String INDEX = ".index";
+
+    /**
+     * Downloaded jars (file unpack mode) are named after the artefact, i.e. release-stream-2.6.5.Final-resources.jar
+     */
+    private static final String JAR_SUFFIX = "-resources.jar";
+
+    private static final class Entry {
+        final long size;
+        /**
+         * Order of insertion, breaks ties between accesses within the same millisecond
+         */
+        long sequence;
+        volatile long lastAccess;
+
+        Entry(long size, long lastAccess) {
+            this.size = size;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    private static final Comparator<Map.Entry<String, Entry>> LEAST_RECENTLY_USED =
+            Comparator.<Map.Entry<String, Entry>>comparingLong(entry -> entry.getValue().lastAccess)
+                    .thenComparingLong(entry -> entry.getValue().sequence);
+
+    private final File wwwDir;
+    private final File indexFile;
+    private final long budget;
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+    private final List<Predicate<String>> inUse = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "disk-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /**
+     * Read without locking on every hit, changes to the set of versions and the size are made under the monitor
+     */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private long size;
+    private long sequence;
+    private volatile boolean dirty;
+
+    private final Metrics.Counter evictions = Metrics.counter("proxy_disk_evictions_total",
+            "Versions deleted from public_html to stay within the disk budget");
+
+    /**
+     * @param budget bytes the unpacked versions may occupy, 0 for no limit
+     */
+    public DiskCache(File wwwDir, long budget) {
+        this.wwwDir = wwwDir;
+        this.indexFile = new File(wwwDir, INDEX);
+        this.budget = budget;
+        Metrics.gauge("proxy_disk_size_bytes", "Bytes occupied by unpacked versions in public_html", this::getSize);
+    }
+
+    /**
+     * Registers a listener that is called with every version before its directory is deleted
+     */
+    public void onEvict(Consumer<String> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Registers a check for versions that must not be evicted right now, i.e. because they are being downloaded
+     * and published again. They are skipped until a later eviction finds them idle.
+     */
+    public void protect(Predicate<String> check) {
+        inUse.add(check);
+    }
+
+    /**
+     * Loads the index, reconciles it with the contents of public_html and removes leftovers
+     * of downloads that didn't complete, i.e. staging directories and empty version directories.
+     * Evicts versions if the budget has been lowered since the last run.
+     *
+     * @param downloadDir where jars are downloaded to. The leftovers in it are deleted, so it must not be shared.
+     */
+    public void open(String downloadDir) throws IOException {
+        Map<String, Entry> index = readIndex();
+
+        File[] dirs = wwwDir.listFiles(File::isDirectory);
+        List<String> found = new ArrayList<>();
+        if (dirs != null) {
+            for (File dir : dirs) {
+                if (dir.getName().endsWith(Files.RETIRED_SUFFIX)) {
+                    Log.info("Remove replaced version " + dir.getName());
+                    Files.deleteRecursive(dir);
+                    continue;
+                }
+                if (dir.getName().endsWith(Files.STAGING_SUFFIX)) {
+                    Log.info("Remove incomplete download " + dir.getName());
+                    Files.deleteRecursive(dir);
+                    continue;
+                }
+                if (dir.getName().startsWith(".")) {
+                    continue;
+                }
+                if (!Files.isComplete(dir) && !migrate(dir)) {
+                    Log.info("Remove incomplete download " + dir.getName());
+                    Files.deleteRecursive(dir);
+                } else {
+                    found.add(dir.getName());
+                }
+            }
+        }
+
+        synchronized (this) {
+            // restore the access order of the previous run, unknown directories count as least recently used
+            List<Map.Entry<String, Entry>> known = new ArrayList<>(index.entrySet());
+            known.sort((a, b) -> Long.compare(a.getValue().lastAccess, b.getValue().lastAccess));
+            for (String version : found) {
+                if (!index.containsKey(version)) {
+                    put(version, new Entry(sizeOf(new File(wwwDir, version)), 0));
+                }
+            }
+            for (Map.Entry<String, Entry> entry : known) {
+                if (found.contains(entry.getKey())) {
+                    put(entry.getKey(), entry.getValue());
+                }
+            }
+            dirty = true;
+        }
+
+        File[] jars = new File(downloadDir).listFiles((dir, name) -> name.endsWith(JAR_SUFFIX));
+        if (jars != null) {
+            for (File jar : jars) {
+                Log.info("Remove downloaded jar " + jar.getName());
+                java.nio.file.Files.deleteIfExists(jar.toPath());
+            }
+        }
+        // interrupted downloads are resumed by the next request, unless nobody asked for them in a day
+        long abandoned = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1);
+        File[] parts = new File(downloadDir).listFiles((dir, name) -> name.endsWith(JAR_SUFFIX + Files.PART_SUFFIX));
+        if (parts != null) {
+            for (File part : parts) {
+                if (part.lastModified() < abandoned) {
+                    Log.info("Remove abandoned download " + part.getName());
+                    java.nio.file.Files.deleteIfExists(part.toPath());
+                }
+            }
+        }
+
+        evict(null);
+        flush();
+        // accesses only change the order, it's fine to lose the last minute of them
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, 1, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Records an access to a version, if it's on disk. Called on every hit, so it doesn't lock:
+     * the versions are only put in order when evicting or writing the index.
+     */
+    public void touch(String version) {
+        Entry entry = entries.get(version);
+        if (entry != null) {
+            entry.lastAccess = System.currentTimeMillis();
+            if (!dirty) {
+                dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Adds a version that has just been unpacked and makes room for it.
+     */
+    public void add(String version) throws IOException {
+        long entrySize = sizeOf(new File(wwwDir, version));
+        synchronized (this) {
+            remove(version);
+            put(version, new Entry(entrySize, System.currentTimeMillis()));
+            dirty = true;
+        }
+        evict(version);
+        flush();
+    }
+
+    /**
+     * Forgets a version that has been deleted by its owner, i.e. a superseded snapshot
+     */
+    public synchronized void remove(String version) {
+        Entry entry = entries.remove(version);
+        if (entry != null) {
+            size -= entry.size;
+            dirty = true;
+        }
+    }
+
+    /**
+     * @return the versions on disk, least recently used first
+     */
+    public synchronized List<String> getVersions() {
+        List<String> versions = new ArrayList<>();
+        for (Map.Entry<String, Entry> entry : leastRecentlyUsed()) {
+            versions.add(entry.getKey());
+        }
+        return versions;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Writes the index if it changed since it was last written
+     */
+    public void flush() throws IOException {
+        List<String> lines = new ArrayList<>();
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            dirty = false;
+            for (Map.Entry<String, Entry> entry : leastRecentlyUsed()) {
+                lines.add(entry.getKey() + " " + entry.getValue().size + " " + entry.getValue().lastAccess);
+            }
+        }
+        synchronized (indexFile) {
+            File tmp = new File(wwwDir, INDEX + ".tmp");
+            try (Writer out = java.nio.file.Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+                for (String line : lines) {
+                    out.write(line);
+                    out.write('\n');
+                }
+            }
+            java.nio.file.Files.move(tmp.toPath(), indexFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            Log.warn("Failed to write " + INDEX, e);
+        }
+    }
+
+    private void put(String version, Entry entry) {
+        entry.sequence = sequence++;
+        entries.put(version, entry);
+        size += entry.size;
+    }
+
+    /**
+     * @return a snapshot of the entries, least recently used first. The accesses are copied before sorting,
+     * since hits keep updating them.
+     */
+    private List<Map.Entry<String, Entry>> leastRecentlyUsed() {
+        List<Map.Entry<String, Entry>> ordered = new ArrayList<>(entries.size());
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            Entry copy = new Entry(entry.getValue().size, entry.getValue().lastAccess);
+            copy.sequence = entry.getValue().sequence;
+            ordered.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), copy));
+        }
+        ordered.sort(LEAST_RECENTLY_USED);
+        return ordered;
+    }
+
+    /**
+     * Deletes least recently used versions until the budget is met, sparing the given version and those in use
+     */
+    private void evict(String keep) throws IOException {
+        if (budget <= 0) {
+            return;
+        }
+        List<String> evicted = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<String, Entry> eldest : leastRecentlyUsed()) {
+                if (size <= budget) {
+                    break;
+                }
+                if (eldest.getKey().equals(keep) || isInUse(eldest.getKey())) {
+                    continue;
+                }
+                entries.remove(eldest.getKey());
+                size -= eldest.getValue().size;
+                evicted.add(eldest.getKey());
+                dirty = true;
+            }
+        }
+        for (String version : evicted) {
+            Log.info("Evict " + version + " from public_html");
+            // unpublish first, so that nobody is redirected to a directory that is about to disappear
+            for (Consumer<String> listener : listeners) {
+                listener.accept(version);
+            }
+            File dir = new File(wwwDir, version);
+            if (dir.exists()) {
+                Files.deleteRecursive(dir);
+            }
+            evictions.inc();
+        }
+    }
+
+    private boolean isInUse(String version) {
+        for (Predicate<String> check : inUse) {
+            if (check.test(version)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Marks a version unpacked by a release that predates the {@link Files#COMPLETE} marker as complete, so that
+     * an upgrade doesn't flush the cache. Those releases unpacked in place and served whatever they found,
+     * a download of this release is only ever incomplete in its staging directory.
+     *
+     * @return false if the directory is empty and should be removed
+     */
+    private static boolean migrate(File dir) throws IOException {
+        String[] contents = dir.list();
+        if (contents == null || contents.length == 0) {
+            return false;
+        }
+        Log.info("Mark " + dir.getName() + " as complete");
+        java.nio.file.Files.createFile(new File(dir, Files.COMPLETE).toPath());
+        return true;
+    }
+
+    private Map<String, Entry> readIndex() throws IOException {
+        Map<String, Entry> index = new LinkedHashMap<>();
+        try (BufferedReader in = java.nio.file.Files.newBufferedReader(indexFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split(" ");
+                if (fields.length == 3) {
+                    try {
+                        index.put(fields[0], new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+                    } catch (NumberFormatException e) {
+                        // skip the line, the directory is picked up from disk
+                    }
+                }
+            }
+        } catch (FileNotFoundException | java.nio.file.NoSuchFileException e) {
+            // first run
+        }
+        return index;
+    }
+
+    static long sizeOf(File dir) throws IOException {
+        long[] total = new long[1];
+        java.nio.file.Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                total[0] += attrs.size();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return total[0];
+    }
+}
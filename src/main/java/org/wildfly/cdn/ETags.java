@@ -0,0 +1,173 @@
+package org.wildfly.cdn;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Strong entity tags for the files of unpacked versions.
+ * <p>
+ * The tags are content hashes computed once while a jar is unpacked and stored in a manifest
+ * ({@value #MANIFEST}) in the version directory. Snapshot tags are additionally prefixed with
+ * the name of the resolved snapshot artefact, so they change whenever a newer snapshot is published.
+ *
+ * @since 18/10/26
+ */
+public class ETags {
+
+    public static final String MANIFEST = ".etags";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Collects the content hashes of the files written while unpacking a jar. Files may be added concurrently.
+     */
+    static final class Manifest {
+        private final StringBuilder lines = new StringBuilder();
+
+        /**
+         * @param hash the SHA-1 digest of the file content
+         */
+        synchronized void add(String path, byte[] hash) {
+            lines.append(hex(hash)).append(' ').append(path).append('\n');
+        }
+
+        synchronized void write(File dir) throws IOException {
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(new File(dir, MANIFEST)), StandardCharsets.UTF_8)) {
+                out.write(lines.toString());
+            }
+        }
+    }
+
+    private final File wwwDir;
+    private final Function<String, VersionedResource> snapshots;
+    private final ConcurrentHashMap<String, Map<String, String>> versions = new ConcurrentHashMap<>();
+
+    /**
+     * @param snapshots resolves a snapshot version to the artefact it has been unpacked from, null if unknown,
+     * the marker in the version directory is used then
+     */
+    public ETags(File wwwDir, Function<String, VersionedResource> snapshots) {
+        this.wwwDir = wwwDir;
+        this.snapshots = snapshots;
+    }
+
+    /**
+     * @param version the version directory
+     * @param path the path of the file within the version directory
+     * @return the quoted entity tag, or null if the version was unpacked without a manifest
+     */
+    public String get(String version, String path) {
+        Map<String, String> tags = versions.computeIfAbsent(version, this::load);
+        return tags != null ? tags.get(path) : null;
+    }
+
+    public void invalidate(String version) {
+        versions.remove(version);
+    }
+
+    /**
+     * @return the tags of a version, or null while it isn't published, so that they are looked up again
+     */
+    private Map<String, String> load(String version) {
+        File dir = new File(wwwDir, version);
+        if (!Files.isComplete(dir)) {
+            return null;
+        }
+        File manifest = new File(dir, MANIFEST);
+        if (!manifest.isFile()) {
+            return Collections.emptyMap();
+        }
+
+        String prefix = "";
+        if (version.endsWith("-SNAPSHOT")) {
+            // the marker is only created after the snapshot has been published, the resolution is known before
+            VersionedResource resolved = snapshots.apply(version);
+            String name = resolved != null ? resolved.getResourceName() : null;
+            if (name == null) {
+                String[] markers = dir.list((parent, file) -> file.endsWith("-resources.jar"));
+                if (markers == null || markers.length == 0) {
+                    return null;
+                }
+                name = markers[0];
+            }
+            prefix = hex(sha1().digest(name.getBytes(StandardCharsets.UTF_8))).substring(0, 8) + "-";
+        }
+
+        Map<String, String> tags = new HashMap<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int space = line.indexOf(' ');
+                if (space > 0) {
+                    String hash = prefix + line.substring(0, space);
+                    String path = line.substring(space + 1);
+                    tags.put(path, '"' + hash + '"');
+                    // the precompressed variant is a different representation and needs its own tag
+                    tags.put(path + Files.GZIP_SUFFIX, '"' + hash + "-gz\"");
+                }
+            }
+        } catch (IOException e) {
+            Log.warn("Failed to read " + manifest, e);
+            return Collections.emptyMap();
+        }
+        return tags;
+    }
+
+    /**
+     * @return a quoted entity tag for the given content
+     */
+    public static String of(byte[] content) {
+        return '"' + hex(sha1().digest(content)) + '"';
+    }
+
+    /**
+     * @return true if the If-None-Match header matches the given entity tag
+     */
+    static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || etag == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                // If-None-Match uses the weak comparison
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
@@ -1,24 +1,45 @@
 package org.wildfly.cdn;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 /**
  * @author Heiko Braun
@@ -26,40 +47,91 @@ import java.util.jar.JarFile;
  */
 public class Files {
 
-    private static final int BUFFER_SIZE = 4096;
+    private static final int STREAM_BUFFER_SIZE = 65536;
+
+    static final String STAGING_SUFFIX = ".staging";
+
+    /**
+     * Suffix of a version directory that has been replaced and is about to be deleted.
+     * Like all dot-prefixed names in public_html, it is never served.
+     */
+    static final String RETIRED_SUFFIX = ".retired";
+
+    /**
+     * Suffix of a download in progress, which can be resumed
+     */
+    static final String PART_SUFFIX = ".part";
+
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    /**
+     * Marker of a completely unpacked version
+     */
+    public static final String COMPLETE = ".complete";
+
+    /**
+     * Name of the jar in a version directory that is served without unpacking it
+     */
+    public static final String JAR = ".resources.jar";
+
+    /**
+     * Upper bound for the bytes of entries that have been read from a stream but not written yet
+     */
+    private static final int MAX_BUFFERED_BYTES = 32 * 1024 * 1024;
+
+    /**
+     * Entries above this size are written by the thread reading the stream instead of being buffered
+     */
+    private static final int MAX_BUFFERED_ENTRY_BYTES = MAX_BUFFERED_BYTES / 4;
+
+    private static final ForkJoinPool UNPACK_POOL = new ForkJoinPool(Config.UNPACK_PARALLELISM);
+
+    public static final String GZIP_SUFFIX = ".gz";
+
+    private static final Metrics.Histogram UNPACK = Metrics.histogram("proxy_unpack_seconds",
+            "Time spent unpacking resources jars");
+    private static final Metrics.Counter UNPACKED_BYTES = Metrics.counter("proxy_unpack_bytes_total",
+            "Uncompressed bytes written when unpacking resources jars");
+    private static final Metrics.Counter RESUMED = Metrics.counter("proxy_download_resumed_total",
+            "Downloads continued with a range request");
+    private static final Metrics.Counter CORRUPT = Metrics.counter("proxy_download_corrupt_total",
+            "Downloads rejected because they didn't match the published checksum");
+
+    private static final Set<String> COMPRESSIBLE = new HashSet<>(Arrays.asList(
+            "html", "htm", "js", "css", "json", "xml", "svg", "txt", "map", "ttf", "eot"));
 
     public static boolean unzipJar(String destPath, String jarPath) {
-        try {
+        long start = System.nanoTime();
+        File staging = stagingDir(destPath);
+        try (JarFile jarFile = new JarFile(new File(jarPath))) {
 
-            JarFile jarFile = new JarFile(new File(jarPath));
+            String stagingRoot = prepareStaging(staging);
+            ETags.Manifest manifest = new ETags.Manifest();
+            List<Callable<Void>> tasks = new ArrayList<>();
             Enumeration<JarEntry> enums = jarFile.entries();
             while (enums.hasMoreElements()) {
                 JarEntry entry = enums.nextElement();
 
-                File toWrite = new File(destPath + File.separator + entry.getName());
-                if (entry.isDirectory()) {
-                    toWrite.mkdirs();
+                File toWrite = entryFile(staging, stagingRoot, entry);
+                if (toWrite == null) {
                     continue;
                 }
-                InputStream in = new BufferedInputStream(jarFile.getInputStream(entry));
-                OutputStream out = new BufferedOutputStream(new FileOutputStream(toWrite));
-                byte[] buffer = new byte[2048];
-                for (; ; ) {
-                    int nBytes = in.read(buffer);
-                    if (nBytes <= 0) {
-                        break;
+                // entries of a jar file can be read concurrently
+                tasks.add(() -> {
+                    try (InputStream in = jarFile.getInputStream(entry)) {
+                        extract(in, toWrite, entry.getName(), manifest);
                     }
-                    out.write(buffer, 0, nBytes);
-                }
-                out.flush();
-                out.close();
-                in.close();
-
-
+                    return null;
+                });
             }
+            await(UNPACK_POOL.invokeAll(tasks));
+            publish(staging, manifest, destPath);
         } catch (IOException ex) {
-            ex.printStackTrace();
+            Log.warn("Failed to unpack " + jarPath, ex);
+            deleteQuietly(staging);
             return false;
+        } finally {
+            UNPACK.recordSince(start);
         }
         return true;
     }
@@ -72,59 +144,511 @@ public class Files {
      */
     public static Optional<String> downloadFile(String fileURL, String saveDir)
             throws IOException {
-        URL url = new URL(fileURL);
-        HttpURLConnection httpConn = (HttpURLConnection) url.openConnection();
-        int responseCode = httpConn.getResponseCode();
-
-        String saveFilePath = null;
-
-        // always check HTTP response code first
-        if (responseCode == HttpURLConnection.HTTP_OK) {
-            String fileName = "";
-            String disposition = httpConn.getHeaderField("Content-Disposition");
-            String contentType = httpConn.getContentType();
-            int contentLength = httpConn.getContentLength();
-
-            if (disposition != null) {
-                // extracts file name from header field
-                int index = disposition.indexOf("filename=");
-                if (index > 0) {
-                    fileName = disposition.substring(index + 10,
-                            disposition.length() - 1);
+        return downloadFile(fileURL, saveDir, null);
+    }
+
+    private static Optional<String> downloadFile(String fileURL, String saveDir, Throttle throttle)
+            throws IOException {
+        File target = new File(saveDir, fileURL.substring(fileURL.lastIndexOf("/") + 1));
+        if (!download(fileURL, target, throttle)) {
+            return Optional.empty();
+        }
+        Log.info("Downloaded " + fileURL);
+        return Optional.of(target.getPath());
+    }
+
+    /**
+     * Downloads a file into {@code target}, continuing where an earlier attempt was cut off.
+     * <p>
+     * The bytes are written to {@code <target>.part}, which is only renamed to {@code target} once its content
+     * matches the checksum Nexus publishes for it. Artefacts never change once they are deployed, so an interrupted
+     * download is resumed with a range request, up to {@link Config#UPSTREAM_RETRIES} times within one call,
+     * and by the next call for the same file otherwise.
+     *
+     * @return false if the server didn't have the file
+     * @throws IOException if the download failed or the content doesn't match the checksum
+     */
+    static boolean download(String fileURL, File target, Throttle throttle) throws IOException {
+        File part = new File(target.getPath() + PART_SUFFIX);
+        Checksum checksum = Checksum.fetch(fileURL);
+        for (int attempt = 0; ; attempt++) {
+            long offset = part.length();
+            try (Upstream.Response httpConn = Upstream.get(fileURL, offset)) {
+                int responseCode = httpConn.getStatus();
+                if (responseCode == HttpURLConnection.HTTP_PARTIAL) {
+                    Log.info("Resuming " + fileURL + " at " + offset + " bytes");
+                    RESUMED.inc();
+                    checksum.restart(part);
+                } else if (responseCode == HttpURLConnection.HTTP_OK) {
+                    offset = 0;
+                    checksum.restart(null);
+                } else if (responseCode == HTTP_RANGE_NOT_SATISFIABLE && offset > 0) {
+                    // the part is no prefix of the file, start over
+                    java.nio.file.Files.delete(part.toPath());
+                    continue;
+                } else {
+                    Log.warn("No file to download. Server replied HTTP code: " + responseCode);
+                    return false;
+                }
+
+                InputStream inputStream = checksum.wrap(throttle != null ? throttle.wrap(httpConn.getBody()) : httpConn.getBody());
+                try (OutputStream outputStream = new FileOutputStream(part, offset > 0)) {
+                    int bytesRead;
+                    byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+                    while ((bytesRead = inputStream.read(buffer)) != -1) {
+                        outputStream.write(buffer, 0, bytesRead);
+                    }
+                }
+            } catch (IOException e) {
+                if (attempt >= Config.UPSTREAM_RETRIES || Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                Log.warn("Download of " + fileURL + " stopped at " + part.length() + " bytes", e);
+                continue;
+            }
+
+            try {
+                checksum.verify(fileURL);
+            } catch (IOException e) {
+                CORRUPT.inc();
+                java.nio.file.Files.delete(part.toPath());
+                throw e;
+            }
+            java.nio.file.Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        }
+    }
+
+    /**
+     * Downloads a jar and unpacks it into {@code destPath}. Depending on {@link Config#STREAMING_UNPACK}
+     * the jar is unpacked while it is downloaded, or stored in {@code saveDir} and unpacked afterwards.
+     *
+     * @return false if the server didn't have the jar
+     * @throws IOException if the download or unpacking failed
+     */
+    public static boolean downloadAndUnpack(String fileURL, String destPath, String saveDir) throws IOException {
+        return downloadAndUnpack(fileURL, destPath, saveDir, null);
+    }
+
+    /**
+     * Like {@link #downloadAndUnpack(String, String, String)}, reading the download at the rate of the given throttle.
+     */
+    public static boolean downloadAndUnpack(String fileURL, String destPath, String saveDir, Throttle throttle) throws IOException {
+        if (Config.SERVE_FROM_JAR) {
+            return storeJar(fileURL, destPath, saveDir, throttle);
+        }
+        if (Config.STREAMING_UNPACK) {
+            return streamJar(fileURL, destPath, throttle).isPresent();
+        }
+
+        Optional<String> fileLocation = downloadFile(fileURL, saveDir, throttle);
+        if (!fileLocation.isPresent()) {
+            return false;
+        }
+        try {
+            if (!unzipJar(destPath, fileLocation.get())) {
+                throw new IOException("Failed to unpack " + fileLocation.get());
+            }
+        } finally {
+            java.nio.file.Files.deleteIfExists(Paths.get(fileLocation.get()));
+        }
+        return true;
+    }
+
+    /**
+     * Downloads a jar and unpacks it while the bytes arrive, without keeping a copy of the jar on disk.
+     * The entries are written to a staging directory that replaces the destination once the jar has been read completely.
+     * If the connection breaks off, the download continues with a range request where it stopped, see {@link ResumingInputStream}.
+     *
+     * @param fileURL HTTP URL of the jar
+     * @param destPath the directory to unpack into
+     * @return the destination directory, or nothing if the server didn't have the jar
+     * @throws IOException if the download or unpacking failed. Nothing is written to the destination in that case.
+     */
+    public static Optional<String> streamJar(String fileURL, String destPath) throws IOException {
+        return streamJar(fileURL, destPath, null);
+    }
+
+    private static Optional<String> streamJar(String fileURL, String destPath, Throttle throttle) throws IOException {
+        Checksum checksum = Checksum.fetch(fileURL);
+        try (Upstream.Response httpConn = Upstream.get(fileURL)) {
+            int responseCode = httpConn.getStatus();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                Log.warn("No file to download. Server replied HTTP code: " + responseCode);
+                return Optional.empty();
+            }
+
+            Log.info("Streaming " + fileURL + " (Content-Length = " + httpConn.getContentLength() + ")");
+            checksum.restart(null);
+            try (ResumingInputStream resuming = new ResumingInputStream(fileURL, httpConn.getBody(), httpConn.getContentLength())) {
+                InputStream body = checksum.wrap(throttle != null ? throttle.wrap(resuming) : resuming);
+                unpackStream(body, destPath, () -> checksum.verify(fileURL));
+            }
+            return Optional.of(destPath);
+        }
+    }
+
+    /**
+     * The body of a streamed download, which continues with a range request when the connection breaks off,
+     * or ends before the announced length, up to {@link Config#UPSTREAM_RETRIES} times. Like {@link #download} this relies on artefacts never changing
+     * once they are deployed, the checksum of the whole jar is verified before it is published anyway.
+     */
+    private static final class ResumingInputStream extends InputStream {
+        private final String fileURL;
+        private final long length;
+        private InputStream in;
+        private Upstream.Response resumed;
+        private long position;
+        private int attempts;
+
+        /**
+         * @param length the Content-Length of the whole file, -1 if unknown
+         */
+        ResumingInputStream(String fileURL, InputStream in, long length) {
+            this.fileURL = fileURL;
+            this.in = in;
+            this.length = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (true) {
+                try {
+                    int n = in.read(b, off, len);
+                    if (n > 0) {
+                        position += n;
+                    } else if (n == -1 && position < length) {
+                        throw new EOFException("Connection closed after " + position + " of " + length + " bytes");
+                    }
+                    return n;
+                } catch (IOException e) {
+                    resume(e);
+                }
+            }
+        }
+
+        private void resume(IOException cause) throws IOException {
+            if (attempts >= Config.UPSTREAM_RETRIES || cause instanceof InterruptedIOException
+                    || Thread.currentThread().isInterrupted()) {
+                throw cause;
+            }
+            attempts++;
+            Log.warn("Download of " + fileURL + " stopped at " + position + " bytes", cause);
+            closeResumed();
+
+            Upstream.Response response = Upstream.get(fileURL, position);
+            if (response.getStatus() != HttpURLConnection.HTTP_PARTIAL) {
+                // without a range the bytes read so far can't be continued
+                response.close();
+                throw cause;
+            }
+            Log.info("Resuming " + fileURL + " at " + position + " bytes");
+            RESUMED.inc();
+            resumed = response;
+            in = response.getBody();
+        }
+
+        private void closeResumed() {
+            if (resumed != null) {
+                try {
+                    resumed.close();
+                } catch (IOException e) {
+                    // the connection broke off already
                 }
-            } else {
-                // extracts file name from URL
-                fileName = fileURL.substring(fileURL.lastIndexOf("/") + 1,
-                        fileURL.length());
+                resumed = null;
             }
+        }
+
+        @Override
+        public void close() {
+            // the first response is closed by its owner
+            closeResumed();
+        }
+    }
+
+    /**
+     * Downloads a jar into {@code destPath} as it is, to serve its entries with a {@link JarIndex}.
+     *
+     * @return false if the server didn't have the jar
+     * @throws IOException if the download failed or the jar can't be indexed. Nothing is written to the destination in that case.
+     */
+    static boolean storeJar(String fileURL, String destPath, String saveDir, Throttle throttle) throws IOException {
+        File downloaded = new File(saveDir, fileURL.substring(fileURL.lastIndexOf("/") + 1));
+        if (!download(fileURL, downloaded, throttle)) {
+            return false;
+        }
+
+        File staging = stagingDir(destPath);
+        prepareStaging(staging);
+        File jar = new File(staging, JAR);
+        try {
+            java.nio.file.Files.move(downloaded.toPath(), jar.toPath());
+            // a jar that doesn't index fails here rather than on the first request
+            Log.info("Indexed " + JarIndex.open(jar).size() + " entries of " + fileURL);
+            publish(staging, null, destPath);
+        } catch (IOException e) {
+            deleteQuietly(staging);
+            throw e;
+        } finally {
+            java.nio.file.Files.deleteIfExists(downloaded.toPath());
+        }
+        return true;
+    }
 
-            System.out.println("Content-Type = " + contentType);
-            System.out.println("Content-Disposition = " + disposition);
-            System.out.println("Content-Length = " + contentLength);
-            System.out.println("fileName = " + fileName);
+    /**
+     * Unpacks a jar from a stream into a staging directory and moves it to {@code destPath} when done.
+     * The stream is read on the calling thread, while writing, hashing and compressing the entries runs in parallel.
+     */
+    static void unpackStream(InputStream jar, String destPath) throws IOException {
+        unpackStream(jar, destPath, null);
+    }
 
-            // opens input stream from the HTTP connection
-            InputStream inputStream = httpConn.getInputStream();
-            saveFilePath = saveDir + File.separator + fileName;
+    /**
+     * Checks the complete download before it is published
+     */
+    interface Verifier {
+        void verify() throws IOException;
+    }
 
-            // opens an output stream to save into file
-            FileOutputStream outputStream = new FileOutputStream(saveFilePath);
+    /**
+     * Like {@link #unpackStream(InputStream, String)}, reading the jar to its end and passing it to the verifier before publishing it.
+     */
+    static void unpackStream(InputStream jar, String destPath, Verifier verifier) throws IOException {
+        File staging = stagingDir(destPath);
+        String stagingRoot = prepareStaging(staging);
+        long start = System.nanoTime();
+        List<Future<Void>> pending = new ArrayList<>();
+        Semaphore buffered = new Semaphore(MAX_BUFFERED_BYTES);
 
-            int bytesRead = -1;
-            byte[] buffer = new byte[BUFFER_SIZE];
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                outputStream.write(buffer, 0, bytesRead);
+        // a ZipInputStream rather than a JarInputStream: the latter swallows META-INF/MANIFEST.MF
+        try (ZipInputStream in = new ZipInputStream(new BufferedInputStream(jar, STREAM_BUFFER_SIZE))) {
+            ETags.Manifest manifest = new ETags.Manifest();
+            byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+            // the end of an entry isn't the end of the jar
+            InputStream current = new FilterInputStream(in) {
+                @Override
+                public void close() {
+                }
+            };
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+
+                File toWrite = entryFile(staging, stagingRoot, entry);
+                if (toWrite == null) {
+                    continue;
+                }
+                String name = entry.getName();
+                boolean large = entry.getSize() > MAX_BUFFERED_ENTRY_BYTES;
+                ByteArrayOutputStream content = new ByteArrayOutputStream(entry.getSize() > 0 && !large ? (int) entry.getSize() : 8192);
+                // limits the memory held by entries that have been read but not written yet,
+                // the permits are taken before reading, so a chunk is only allocated once there is room for it
+                int permits = 0;
+                while (!large) {
+                    acquire(buffered, STREAM_BUFFER_SIZE);
+                    int nBytes = in.read(buffer);
+                    if (nBytes <= 0) {
+                        buffered.release(STREAM_BUFFER_SIZE);
+                        break;
+                    }
+                    buffered.release(STREAM_BUFFER_SIZE - nBytes);
+                    permits += nBytes;
+                    content.write(buffer, 0, nBytes);
+                    // the size is unknown if the jar was written as a stream
+                    large = permits > MAX_BUFFERED_ENTRY_BYTES;
+                }
+                if (large) {
+                    // written straight from the stream, with whatever has been read of it so far
+                    try {
+                        extract(new SequenceInputStream(new ByteArrayInputStream(content.toByteArray()), current), toWrite, name, manifest);
+                    } finally {
+                        buffered.release(permits);
+                    }
+                    continue;
+                }
+
+                byte[] bytes = content.toByteArray();
+                int held = permits;
+                pending.add(UNPACK_POOL.submit(() -> {
+                    try {
+                        extract(new ByteArrayInputStream(bytes), toWrite, name, manifest);
+                    } finally {
+                        buffered.release(held);
+                    }
+                    return null;
+                }));
+            }
+            await(pending);
+            if (verifier != null) {
+                // the entries are followed by the central directory, which is part of the checksum
+                byte[] rest = new byte[STREAM_BUFFER_SIZE];
+                while (jar.read(rest) != -1) {
+                    // digested while reading
+                }
+                verifier.verify();
+            }
+            publish(staging, manifest, destPath);
+        } catch (IOException e) {
+            // let the running writes finish before removing their directory
+            try {
+                await(pending);
+            } catch (IOException ignored) {
+                // already failing
             }
+            deleteQuietly(staging);
+            throw e;
+        } finally {
+            UNPACK.recordSince(start);
+        }
+    }
 
-            outputStream.close();
-            inputStream.close();
+    /**
+     * @return true if {@code dir} is a version that has been unpacked completely
+     */
+    public static boolean isComplete(File dir) {
+        return new File(dir, COMPLETE).isFile();
+    }
 
-            System.out.println("File downloaded");
-        } else {
-            System.out.println("No file to download. Server replied HTTP code: " + responseCode);
+    /**
+     * @return where a version is unpacked to before it's published, next to it on the same file system.
+     * The name starts with a dot, so that a partially written tree is never served.
+     */
+    static File stagingDir(String destPath) {
+        File dest = new File(destPath);
+        return new File(dest.getParentFile(), "." + dest.getName() + STAGING_SUFFIX);
+    }
+
+    private static String prepareStaging(File staging) throws IOException {
+        if (staging.exists()) {
+            deleteRecursive(staging);
+        }
+        staging.mkdirs();
+        return staging.getCanonicalPath() + File.separator;
+    }
+
+    /**
+     * @return the file to write an entry to, or null for directories, which are created right away
+     * @throws IOException if the entry points outside of the staging directory
+     */
+    private static File entryFile(File staging, String stagingRoot, ZipEntry entry) throws IOException {
+        File toWrite = new File(staging, entry.getName());
+        if (!toWrite.getCanonicalPath().startsWith(stagingRoot)) {
+            throw new IOException("Illegal entry " + entry.getName());
+        }
+        if (entry.isDirectory()) {
+            toWrite.mkdirs();
+            return null;
+        }
+        toWrite.getParentFile().mkdirs();
+        return toWrite;
+    }
+
+    /**
+     * Writes one entry, records its hash in the manifest and compresses it if worthwhile
+     */
+    private static void extract(InputStream in, File toWrite, String name, ETags.Manifest manifest) throws IOException {
+        MessageDigest digest = ETags.sha1();
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        try (FileChannel out = FileChannel.open(toWrite.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            int nBytes;
+            while ((nBytes = in.read(buffer)) > 0) {
+                ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, nBytes);
+                while (bytes.hasRemaining()) {
+                    out.write(bytes);
+                }
+                digest.update(buffer, 0, nBytes);
+                UNPACKED_BYTES.add(nBytes);
+            }
+        }
+        manifest.add(name, digest.digest());
+        precompress(toWrite);
+    }
+
+    private static void acquire(Semaphore semaphore, int permits) throws InterruptedIOException {
+        try {
+            semaphore.acquire(permits);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while unpacking");
+        }
+    }
+
+    private static void await(List<Future<Void>> tasks) throws IOException {
+        IOException failure = null;
+        for (Future<Void> task : tasks) {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while unpacking");
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Marks the staging directory as complete and moves it into place in one step,
+     * replacing whatever an earlier, failed attempt may have left behind.
+     * <p>
+     * A directory can't be replaced by a rename, so the old one is renamed aside first and only deleted
+     * once the new one is in place. Requests never see a partially deleted tree, at worst a 404 in between the renames.
+     */
+    private static void publish(File staging, ETags.Manifest manifest, String destPath) throws IOException {
+        if (manifest != null) {
+            manifest.write(staging);
+        }
+        new File(staging, COMPLETE).createNewFile();
+        File dest = new File(destPath);
+        File retired = null;
+        if (dest.exists()) {
+            retired = new File(dest.getParentFile(), "." + dest.getName() + RETIRED_SUFFIX);
+            deleteQuietly(retired);
+            java.nio.file.Files.move(dest.toPath(), retired.toPath(), StandardCopyOption.ATOMIC_MOVE);
         }
-        httpConn.disconnect();
-        return saveFilePath!=null ? Optional.of(saveFilePath) : Optional.empty();
+        java.nio.file.Files.move(staging.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        if (retired != null) {
+            deleteQuietly(retired);
+        }
+    }
+
+    private static void deleteQuietly(File dir) {
+        try {
+            if (dir.exists()) {
+                deleteRecursive(dir);
+            }
+        } catch (IOException e) {
+            Log.warn("Failed to delete " + dir, e);
+        }
+    }
+
+    /**
+     * Writes a gzip compressed sibling ({@code <name>.gz}) next to text files above {@link Config#GZIP_THRESHOLD},
+     * so that they can be served compressed without compressing them on every request.
+     */
+    static void precompress(File file) throws IOException {
+        if (!Config.GZIP || !isCompressible(file.getName()) || file.length() < Config.GZIP_THRESHOLD) {
+            return;
+        }
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(file.getPath() + GZIP_SUFFIX), STREAM_BUFFER_SIZE)) {
+            java.nio.file.Files.copy(file.toPath(), out);
+        }
+    }
+
+    static boolean isCompressible(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot != -1 && COMPRESSIBLE.contains(name.substring(dot + 1).toLowerCase());
     }
 
     public static void pipe(InputStream is, OutputStream os) throws IOException {
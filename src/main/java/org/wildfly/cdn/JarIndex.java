@@ -0,0 +1,258 @@
+package org.wildfly.cdn;
+
+import org.eclipse.jetty.server.HttpOutput;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Serves the entries of a jar without unpacking it.
+ * <p>
+ * The jar is memory mapped and its central directory is read once into a map of entry name to the location
+ * and compression method of the entry data. Stored entries are sent straight from the mapping. Deflated entries
+ * are either sent as they are, wrapped into a gzip header and trailer, or inflated for clients without gzip support.
+ *
+ * @since 18/10/26
+ */
+public class JarIndex {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    /**
+     * gzip member header: deflate, no flags, no mtime, unknown OS
+     */
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int GZIP_TRAILER_SIZE = 8;
+
+    public final class Entry {
+        private final int method;
+        private final int crc;
+        private final int compressedSize;
+        private final int size;
+        private final int offset;
+
+        Entry(int method, int crc, int compressedSize, int size, int offset) {
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.offset = offset;
+        }
+
+        public boolean isDeflated() {
+            return method == DEFLATED;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * @return the length of the gzip representation, only meaningful for deflated entries
+         */
+        public int getGzipSize() {
+            return GZIP_HEADER.length + compressedSize + GZIP_TRAILER_SIZE;
+        }
+
+        /**
+         * A strong entity tag derived from the CRC and size recorded in the jar
+         */
+        public String getETag(boolean gzip) {
+            return '"' + String.format("%08x", crc) + '-' + Integer.toHexString(size) + (gzip ? "-gz\"" : "\"");
+        }
+
+        /**
+         * Writes the uncompressed content
+         */
+        public void writeTo(OutputStream out) throws IOException {
+            if (method == STORED) {
+                if (out instanceof HttpOutput) {
+                    // written from the mapping, without copying it to the heap
+                    ((HttpOutput) out).sendContent(data());
+                } else {
+                    Channels.newChannel(out).write(data());
+                }
+                return;
+            }
+
+            Inflater inflater = new Inflater(true);
+            // raw inflation needs an extra byte after the deflate data
+            InputStream deflated = new SequenceInputStream(new ByteBufferInputStream(data()), new ByteArrayInputStream(new byte[1]));
+            try (InputStream in = new InflaterInputStream(deflated, inflater, 8192)) {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+            } finally {
+                inflater.end();
+            }
+        }
+
+        /**
+         * Writes a deflated entry as a gzip stream without recompressing it
+         */
+        public void writeGzipTo(OutputStream out) throws IOException {
+            out.write(GZIP_HEADER);
+            Channels.newChannel(out).write(data());
+            ByteBuffer trailer = ByteBuffer.allocate(GZIP_TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            trailer.putInt(crc).putInt(size);
+            out.write(trailer.array());
+        }
+
+        private ByteBuffer data() {
+            ByteBuffer data = map.duplicate();
+            data.position(offset);
+            data.limit(offset + compressedSize);
+            return data.slice();
+        }
+    }
+
+    private final MappedByteBuffer map;
+    private final long lastModified;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    private JarIndex(MappedByteBuffer map, long lastModified) {
+        this.map = map;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Maps a jar and reads its central directory.
+     *
+     * @throws IOException if the file is not a jar, or uses features this index doesn't support (i.e. ZIP64)
+     */
+    public static JarIndex open(File jar) throws IOException {
+        MappedByteBuffer map;
+        try (FileChannel channel = FileChannel.open(jar.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(jar + " is too large");
+            }
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        JarIndex index = new JarIndex(map, jar.lastModified());
+        index.read();
+        return index;
+    }
+
+    /**
+     * @return the entry with the given name, or null if there is no such file
+     */
+    public Entry get(String name) {
+        return entries.get(name);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    private void read() throws IOException {
+        ByteBuffer buffer = map.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int end = findEndOfCentralDirectory(buffer);
+        int count = buffer.getShort(end + 10) & 0xffff;
+        long directoryOffset = buffer.getInt(end + 16) & 0xffffffffL;
+        if (count == 0xffff || directoryOffset == 0xffffffffL) {
+            throw new IOException("ZIP64 archives are not supported");
+        }
+
+        int position = (int) directoryOffset;
+        for (int i = 0; i < count; i++) {
+            if (buffer.getInt(position) != CENTRAL_HEADER) {
+                throw new IOException("Corrupt central directory at " + position);
+            }
+            int method = buffer.getShort(position + 10) & 0xffff;
+            int crc = buffer.getInt(position + 16);
+            int compressedSize = buffer.getInt(position + 20);
+            int size = buffer.getInt(position + 24);
+            int nameLength = buffer.getShort(position + 28) & 0xffff;
+            int extraLength = buffer.getShort(position + 30) & 0xffff;
+            int commentLength = buffer.getShort(position + 32) & 0xffff;
+            int localHeader = buffer.getInt(position + 42);
+
+            byte[] name = new byte[nameLength];
+            ByteBuffer nameBytes = buffer.duplicate();
+            nameBytes.position(position + 46);
+            nameBytes.get(name);
+            String entryName = new String(name, StandardCharsets.UTF_8);
+
+            if (!entryName.endsWith("/") && (method == STORED || method == DEFLATED)) {
+                if (compressedSize < 0 || size < 0 || localHeader < 0) {
+                    throw new IOException("ZIP64 archives are not supported");
+                }
+                entries.put(entryName, new Entry(method, crc, compressedSize, size, dataOffset(buffer, localHeader)));
+            }
+            position += 46 + nameLength + extraLength + commentLength;
+        }
+    }
+
+    /**
+     * The local header repeats name and extra field, with lengths that may differ from the central directory
+     */
+    private static int dataOffset(ByteBuffer buffer, int localHeader) throws IOException {
+        if (buffer.getInt(localHeader) != LOCAL_HEADER) {
+            throw new IOException("Corrupt local header at " + localHeader);
+        }
+        int nameLength = buffer.getShort(localHeader + 26) & 0xffff;
+        int extraLength = buffer.getShort(localHeader + 28) & 0xffff;
+        return localHeader + 30 + nameLength + extraLength;
+    }
+
+    private static int findEndOfCentralDirectory(ByteBuffer buffer) throws IOException {
+        // the record is followed by a comment of at most 64k
+        int last = buffer.limit() - END_OF_CENTRAL_DIRECTORY_SIZE;
+        for (int position = last; position >= 0 && position >= last - 0xffff; position--) {
+            if (buffer.getInt(position) == END_OF_CENTRAL_DIRECTORY) {
+                return position;
+            }
+        }
+        throw new IOException("Not a jar file");
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, n);
+            return n;
+        }
+    }
+}
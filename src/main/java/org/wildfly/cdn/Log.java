@@ -0,0 +1,264 @@
+package org.wildfly.cdn;
+
+import spark.Request;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Access and event records written as JSON lines by a background thread.
+ * <p>
+ * Request threads only put a record into a bounded buffer, they never wait for stdout. Formatting and writing
+ * happen on the writer thread, in batches. If the buffer is full the record is dropped and counted in
+ * {@code proxy_log_dropped_total}, the writer reports the number of dropped records once it catches up.
+ * <p>
+ * Access records are written for the routes wrapped by {@link Metrics#timed}. The version and cache outcome
+ * of a request are set by the route with {@link #outcome(Request, String, String)}.
+ *
+ * @since 18/10/26
+ */
+public final class Log {
+
+    /**
+     * Cache outcomes of access records
+     */
+    public static final String HIT = "hit";
+    public static final String MISS = "miss";
+    public static final String JOINED = "joined";
+    public static final String NOT_MODIFIED = "not_modified";
+    public static final String REJECTED = "rejected";
+    public static final String TIMEOUT = "timeout";
+
+    private static final String VERSION_ATTRIBUTE = "log.version";
+    private static final String CACHE_ATTRIBUTE = "log.cache";
+
+    private static final int MAX_BATCH = 256;
+
+    private static final Log DEFAULT = new Log(Config.LOG_BUFFER, System.out);
+
+    static {
+        Metrics.counter("proxy_log_dropped_total", "Log records dropped because the buffer was full",
+                DEFAULT::getDropped);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> DEFAULT.flush(1000), "log-flush"));
+    }
+
+    private static final class Record {
+        final long time = System.currentTimeMillis();
+        final String level;
+        final String message;
+        final String error;
+        final String route;
+        final String path;
+        final String version;
+        final String cache;
+        final int status;
+        final long durationNanos;
+
+        /**
+         * An event
+         */
+        Record(String level, String message, Throwable error) {
+            this.level = level;
+            this.message = message;
+            this.error = error != null ? error.toString() : null;
+            this.route = null;
+            this.path = null;
+            this.version = null;
+            this.cache = null;
+            this.status = 0;
+            this.durationNanos = 0;
+        }
+
+        /**
+         * An access
+         */
+        Record(String route, String path, String version, String cache, int status, long durationNanos) {
+            this.level = null;
+            this.message = null;
+            this.error = null;
+            this.route = route;
+            this.path = path;
+            this.version = version;
+            this.cache = cache;
+            this.status = status;
+            this.durationNanos = durationNanos;
+        }
+    }
+
+    private final ArrayBlockingQueue<Record> buffer;
+    private final PrintStream out;
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private long reported;
+
+    Log(int capacity, PrintStream out) {
+        this.buffer = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.out = out;
+        Thread writer = new Thread(this::write, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public static void info(String message) {
+        DEFAULT.event("info", message, null);
+    }
+
+    public static void warn(String message) {
+        DEFAULT.event("warn", message, null);
+    }
+
+    public static void warn(String message, Throwable error) {
+        DEFAULT.event("warn", message, error);
+    }
+
+    /**
+     * Records the version a request is about and how it was served, for its access record
+     *
+     * @param cache one of the outcome constants of this class
+     */
+    public static void outcome(Request request, String version, String cache) {
+        request.attribute(VERSION_ATTRIBUTE, version);
+        request.attribute(CACHE_ATTRIBUTE, cache);
+    }
+
+    /**
+     * Writes the access record of a request, with the outcome set by its route
+     */
+    static void access(String route, Request request, int status, long durationNanos) {
+        if (Config.LOG_ACCESS) {
+            DEFAULT.access(route, request.uri(), (String) request.attribute(VERSION_ATTRIBUTE),
+                    (String) request.attribute(CACHE_ATTRIBUTE), status, durationNanos);
+        }
+    }
+
+    private void add(Record record) {
+        if (buffer.offer(record)) {
+            accepted.incrementAndGet();
+        } else {
+            dropped.incrementAndGet();
+        }
+    }
+
+    void access(String route, String path, String version, String cache, int status, long durationNanos) {
+        add(new Record(route, path, version, cache, status, durationNanos));
+    }
+
+    void event(String level, String message, Throwable error) {
+        add(new Record(level, message, error));
+    }
+
+    long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Waits until the records added so far have been written
+     *
+     * @return false if they haven't been written within the timeout
+     */
+    boolean flush(long timeoutMs) {
+        long target = accepted.get();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (written.get() < target) {
+            if (System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void write() {
+        List<Record> batch = new ArrayList<>(MAX_BATCH);
+        StringBuilder lines = new StringBuilder(MAX_BATCH * 160);
+        while (true) {
+            try {
+                batch.add(buffer.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            buffer.drainTo(batch, MAX_BATCH - 1);
+            for (Record record : batch) {
+                format(record, lines);
+            }
+            long droppedNow = dropped.get();
+            if (droppedNow > reported) {
+                format(new Record("warn", "Dropped " + (droppedNow - reported) + " log records, the buffer was full", null), lines);
+                reported = droppedNow;
+            }
+            out.print(lines);
+            out.flush();
+            written.addAndGet(batch.size());
+            batch.clear();
+            lines.setLength(0);
+        }
+    }
+
+    private static void format(Record record, StringBuilder out) {
+        out.append("{\"time\":\"");
+        DateTimeFormatter.ISO_INSTANT.formatTo(Instant.ofEpochMilli(record.time), out);
+        out.append('"');
+        if (record.route != null) {
+            out.append(",\"type\":\"access\"");
+            field(out, "route", record.route);
+            field(out, "path", record.path);
+            field(out, "version", record.version);
+            field(out, "cache", record.cache);
+            out.append(",\"status\":").append(record.status);
+            out.append(",\"duration_ms\":").append(String.format(Locale.ROOT, "%.3f", record.durationNanos / 1e6));
+        } else {
+            out.append(",\"type\":\"event\"");
+            field(out, "level", record.level);
+            field(out, "message", record.message);
+            field(out, "error", record.error);
+        }
+        out.append("}\n");
+    }
+
+    private static void field(StringBuilder out, String name, String value) {
+        if (value == null) {
+            return;
+        }
+        out.append(",\"").append(name).append("\":\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+}
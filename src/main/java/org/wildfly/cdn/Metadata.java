@@ -0,0 +1,268 @@
+package org.wildfly.cdn;
+
+import com.github.zafarkhaja.semver.Version;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * The list of released versions, kept as an immutable snapshot.
+ * <p>
+ * Readers never block once the first snapshot has been loaded: a background task refreshes the snapshot
+ * before it expires, and stale data keeps being served while a refresh is running or if it failed.
+ *
+ * @since 18/10/26
+ */
+public class Metadata {
+
+    private static final String REFRESH = "metadata";
+
+    /**
+     * The first version that can be served from a different origin
+     */
+    public static final Version CORS_SUPPORT_START = Version.valueOf("2.6.5");
+
+    /**
+     * Upper bound for the number of base URL and query combinations a rendered response is kept for
+     */
+    private static final int MAX_RENDERED = 64;
+
+    /**
+     * A response body rendered once per snapshot, with its entity tag.
+     */
+    public static final class Rendered {
+        private final byte[] body;
+        private final String etag;
+
+        Rendered(byte[] body) {
+            this.body = body;
+            this.etag = ETags.of(body);
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public String getETag() {
+            return etag;
+        }
+    }
+
+    /**
+     * An immutable view of the released versions.
+     */
+    public static final class Snapshot {
+        private final VersionIndex index;
+        private final long timestamp;
+        private final Upstream.Validators validators;
+        private final ConcurrentHashMap<String, Rendered> releases = new ConcurrentHashMap<>();
+
+        Snapshot(List<VersionedResource> versions, long timestamp, Upstream.Validators validators) {
+            this(new VersionIndex(versions), timestamp, validators);
+        }
+
+        Snapshot(VersionIndex index, long timestamp, Upstream.Validators validators) {
+            this.index = index;
+            this.timestamp = timestamp;
+            this.validators = validators;
+        }
+
+        /**
+         * @return the versions, newest first
+         */
+        public List<VersionedResource> getVersions() {
+            return index.newestFirst();
+        }
+
+        public VersionIndex getIndex() {
+            return index;
+        }
+
+        public String getLatestVersion() {
+            return index.getLatest().getResourceName();
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public Upstream.Validators getValidators() {
+            return validators;
+        }
+
+        /**
+         * The supported releases (oldest first) as a list of release URLs, one per line.
+         *
+         * @param baseUrl the URL the proxy was accessed with
+         */
+        public Rendered getReleases(String baseUrl) {
+            return getReleases(baseUrl, null, null);
+        }
+
+        /**
+         * The supported releases within a range of versions, both bounds included.
+         *
+         * @param since the oldest version to list, null for all supported versions
+         * @param until the newest version to list, null for no upper bound
+         */
+        public Rendered getReleases(String baseUrl, Version since, Version until) {
+            String key = baseUrl + '|' + since + '|' + until;
+            Rendered rendered = releases.get(key);
+            if (rendered == null) {
+                rendered = new Rendered(renderReleases(baseUrl, since, until));
+                // the base URL depends on the Host header and the bounds on the query, don't let arbitrary values fill the map
+                if (releases.size() < MAX_RENDERED) {
+                    releases.putIfAbsent(key, rendered);
+                }
+            }
+            return rendered;
+        }
+
+        private byte[] renderReleases(String baseUrl, Version since, Version until) {
+            Version from = since == null || since.lessThan(CORS_SUPPORT_START) ? CORS_SUPPORT_START : since;
+            StringBuilder body = new StringBuilder();
+            for (VersionedResource version : index.range(from, until)) {
+                if (body.length() > 0) {
+                    body.append('\n');
+                }
+                body.append(baseUrl).append("/release/").append(version.getResourceName());
+            }
+            return body.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() - timestamp > Config.METADATA_EXPIRY_MS;
+        }
+    }
+
+    private final String repositoryUrl;
+    private final SingleFlight<Snapshot> refreshes = new SingleFlight<>("metadata", 1);
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "metadata-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile Snapshot current;
+    private final List<Consumer<Snapshot>> listeners = new CopyOnWriteArrayList<>();
+
+    private final Metrics.Counter hits = Metrics.counter("proxy_cache_requests_total",
+            "Cache lookups by cache and result", "cache", "metadata", "result", "hit");
+    private final Metrics.Counter stale = Metrics.counter("proxy_cache_requests_total",
+            "Cache lookups by cache and result", "cache", "metadata", "result", "stale");
+    private final Metrics.Counter misses = Metrics.counter("proxy_cache_requests_total",
+            "Cache lookups by cache and result", "cache", "metadata", "result", "miss");
+
+    public Metadata(String repositoryUrl) {
+        this.repositoryUrl = repositoryUrl;
+    }
+
+    /**
+     * Registers a listener that is called with every snapshot loaded from a changed listing, starting with the first one.
+     * Listeners run on the thread that loaded the snapshot and should return quickly.
+     */
+    public void onUpdate(Consumer<Snapshot> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Starts out with a snapshot persisted by a previous run. It is served until the first refresh
+     * replaces it and counts as an update for the listeners.
+     */
+    public void restore(Snapshot snapshot) {
+        if (current == null) {
+            current = snapshot;
+            for (Consumer<Snapshot> listener : listeners) {
+                listener.accept(snapshot);
+            }
+        }
+    }
+
+    /**
+     * @return the current snapshot without loading one, or null
+     */
+    public Snapshot peek() {
+        return current;
+    }
+
+    /**
+     * Loads the first snapshot in the background and refreshes it before it expires.
+     */
+    public void start() {
+        long interval = Math.max(Config.METADATA_EXPIRY_MS * 4 / 5, 1000);
+        scheduler.scheduleWithFixedDelay(this::refreshQuietly, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the current snapshot, even if it's stale. Only the very first call before
+     * any snapshot has been loaded waits for the upstream repository.
+     *
+     * @throws TimeoutException if no snapshot could be loaded within {@link Config#DOWNLOAD_WAIT_MS}
+     */
+    public Snapshot get() throws InterruptedException, ExecutionException, TimeoutException {
+        Snapshot snapshot = current;
+        if (snapshot == null) {
+            misses.inc();
+            return refreshes.execute(REFRESH, this::load, Config.DOWNLOAD_WAIT_MS, TimeUnit.MILLISECONDS);
+        }
+        if (snapshot.isExpired()) {
+            stale.inc();
+            if (!refreshes.isInFlight(REFRESH)) {
+                scheduler.execute(this::refreshQuietly);
+            }
+        } else {
+            hits.inc();
+        }
+        return snapshot;
+    }
+
+    private void refreshQuietly() {
+        try {
+            refreshes.execute(REFRESH, this::load, Config.METADATA_EXPIRY_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            Log.warn("Failed to refresh metadata, keep serving the previous snapshot", e);
+        }
+    }
+
+    private Snapshot load() throws Exception {
+        Snapshot previous = current;
+        Upstream.Validators validators = previous != null ? previous.validators : Upstream.Validators.NONE;
+
+        Snapshot snapshot;
+        boolean changed = false;
+        try (Upstream.Response response = Upstream.get(repositoryUrl, validators)) {
+            if (response.isNotModified() && previous != null) {
+                // nothing changed: extend the current snapshot without parsing the listing again
+                snapshot = new Snapshot(previous.index, System.currentTimeMillis(), previous.validators);
+            } else if (response.getStatus() == 200) {
+                List<VersionedResource> versions = new ArrayList<>();
+                Xml.parseMetadata(response.getBody(), versions::add);
+                if (versions.isEmpty()) {
+                    throw new IllegalStateException("No versions found at " + repositoryUrl);
+                }
+                snapshot = new Snapshot(versions, System.currentTimeMillis(), response.getValidators());
+                changed = true;
+            } else {
+                throw new IOException("Failed to load " + repositoryUrl + ": HTTP " + response.getStatus());
+            }
+        }
+        current = snapshot;
+        if (changed) {
+            for (Consumer<Snapshot> listener : listeners) {
+                listener.accept(snapshot);
+            }
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,194 @@
+package org.wildfly.cdn;
+
+import com.github.zafarkhaja.semver.Version;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Persists the released versions and the resolved snapshots with their validators in the work directory.
+ * <p>
+ * On startup the proxy serves from the persisted state right away instead of waiting for Nexus,
+ * and the first refresh is a conditional request that is usually answered with 304.
+ * The file is rewritten in the background whenever the metadata or a snapshot resolution changed.
+ *
+ * @since 18/10/26
+ */
+public class MetadataStore {
+
+    static final String FILE_NAME = "proxy-metadata.bin";
+
+    private static final int MAGIC = 0x4d455441; // "META"
+    private static final int FORMAT = 3; // 3: versions with qualifiers
+
+    private final File file;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "metadata-store");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean pending = new AtomicBoolean();
+
+    public MetadataStore(String workDir) {
+        this.file = new File(workDir, FILE_NAME);
+    }
+
+    /**
+     * Restores the persisted state into {@code metadata} and {@code snapshots}
+     * and keeps the file up to date with their changes from now on.
+     */
+    public void attach(Metadata metadata, Snapshots snapshots) {
+        long start = System.nanoTime();
+        try {
+            State state = read();
+            if (state != null) {
+                snapshots.restore(state.resolutions);
+                metadata.restore(state.snapshot);
+                Log.info("Restored " + state.snapshot.getVersions().size() + " versions and "
+                        + state.resolutions.size() + " snapshots in " + (System.nanoTime() - start) / 1000000 + " ms");
+            }
+        } catch (IOException | RuntimeException e) {
+            // not worth failing the startup for, the state is loaded from Nexus instead
+            Log.warn("Ignoring " + file, e);
+        }
+
+        Runnable save = () -> {
+            if (pending.compareAndSet(false, true)) {
+                writer.execute(() -> {
+                    pending.set(false);
+                    try {
+                        write(metadata.peek(), snapshots.getResolutions());
+                    } catch (IOException e) {
+                        Log.warn("Failed to write " + file, e);
+                    }
+                });
+            }
+        };
+        metadata.onUpdate(snapshot -> save.run());
+        snapshots.onUpdate(version -> save.run());
+    }
+
+    static final class State {
+        final Metadata.Snapshot snapshot;
+        final Map<String, Snapshots.Resolution> resolutions;
+
+        State(Metadata.Snapshot snapshot, Map<String, Snapshots.Resolution> resolutions) {
+            this.snapshot = snapshot;
+            this.resolutions = resolutions;
+        }
+    }
+
+    /**
+     * @return the persisted state, or null if there is none
+     */
+    State read() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT) {
+                throw new IOException("Unknown format");
+            }
+
+            long timestamp = in.readLong();
+            Upstream.Validators validators = readValidators(in);
+            int count = in.readInt();
+            List<VersionedResource> versions = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                versions.add(readResource(in));
+            }
+
+            int resolutionCount = in.readInt();
+            Map<String, Snapshots.Resolution> resolutions = new HashMap<>();
+            for (int i = 0; i < resolutionCount; i++) {
+                String version = in.readUTF();
+                resolutions.put(version, new Snapshots.Resolution(readResource(in), readValidators(in), in.readLong()));
+            }
+
+            Metadata.Snapshot snapshot = count > 0 ? new Metadata.Snapshot(versions, timestamp, validators) : null;
+            return snapshot != null ? new State(snapshot, resolutions) : null;
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    synchronized void write(Metadata.Snapshot snapshot, Map<String, Snapshots.Resolution> resolutions) throws IOException {
+        if (snapshot == null) {
+            return;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+
+            out.writeLong(snapshot.getTimestamp());
+            writeValidators(out, snapshot.getValidators());
+            out.writeInt(snapshot.getVersions().size());
+            for (VersionedResource resource : snapshot.getVersions()) {
+                writeResource(out, resource);
+            }
+
+            out.writeInt(resolutions.size());
+            for (Map.Entry<String, Snapshots.Resolution> entry : resolutions.entrySet()) {
+                out.writeUTF(entry.getKey());
+                writeResource(out, entry.getValue().getResource());
+                writeValidators(out, entry.getValue().getValidators());
+                out.writeLong(entry.getValue().getResolvedAt());
+            }
+        }
+        java.nio.file.Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeResource(DataOutputStream out, VersionedResource resource) throws IOException {
+        out.writeUTF(resource.getVersion().toString());
+        out.writeUTF(resource.getResourceName());
+        writeNullable(out, resource.getArtefactUrl());
+        out.writeLong(resource.getModified() != null ? resource.getModified().getTime() : -1);
+    }
+
+    private static VersionedResource readResource(DataInputStream in) throws IOException {
+        Version version = Version.valueOf(in.readUTF());
+        VersionedResource resource = new VersionedResource(version, in.readUTF(), readNullable(in));
+        long modified = in.readLong();
+        if (modified != -1) {
+            resource.setLastModified(new Date(modified));
+        }
+        return resource;
+    }
+
+    private static void writeValidators(DataOutputStream out, Upstream.Validators validators) throws IOException {
+        writeNullable(out, validators.getEtag());
+        writeNullable(out, validators.getLastModified());
+    }
+
+    private static Upstream.Validators readValidators(DataInputStream in) throws IOException {
+        String etag = readNullable(in);
+        String lastModified = readNullable(in);
+        return etag == null && lastModified == null ? Upstream.Validators.NONE : new Upstream.Validators(etag, lastModified);
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
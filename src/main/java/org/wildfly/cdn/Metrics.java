@@ -0,0 +1,229 @@
+package org.wildfly.cdn;
+
+import spark.Route;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * A small metrics registry rendered in the Prometheus text format.
+ * <p>
+ * Metrics are identified by name and label pairs, i.e. {@code histogram("proxy_request_duration_seconds", "...", "route", "/latest")}.
+ * Looking up the same name and labels twice returns the same instance.
+ *
+ * @since 18/10/26
+ */
+public final class Metrics {
+
+    /**
+     * Latency buckets in seconds, from cache hits up to slow upstream downloads
+     */
+    private static final double[] BUCKETS = {
+            0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60
+    };
+
+    private interface Sample {
+        void write(StringBuilder out, String name, String labels);
+    }
+
+    public static final class Counter implements Sample {
+        private final LongAdder value = new LongAdder();
+
+        public void inc() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String labels) {
+            line(out, name, labels, value.sum());
+        }
+    }
+
+    public static final class Histogram implements Sample {
+        private final LongAdder[] buckets = new LongAdder[BUCKETS.length];
+        private final LongAdder count = new LongAdder();
+        private final DoubleAdder sum = new DoubleAdder();
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void record(long nanos) {
+            double seconds = nanos / (double) TimeUnit.SECONDS.toNanos(1);
+            for (int i = 0; i < BUCKETS.length; i++) {
+                if (seconds <= BUCKETS[i]) {
+                    buckets[i].increment();
+                    break;
+                }
+            }
+            count.increment();
+            sum.add(seconds);
+        }
+
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String labels) {
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                cumulative += buckets[i].sum();
+                line(out, name + "_bucket", withLabel(labels, "le", String.valueOf(BUCKETS[i])), cumulative);
+            }
+            long total = count.sum();
+            line(out, name + "_bucket", withLabel(labels, "le", "+Inf"), total);
+            line(out, name + "_sum", labels, sum.sum());
+            line(out, name + "_count", labels, total);
+        }
+    }
+
+    private static final class Callback implements Sample {
+        private final LongSupplier value;
+
+        Callback(LongSupplier value) {
+            this.value = value;
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String labels) {
+            line(out, name, labels, value.getAsLong());
+        }
+    }
+
+    private static final class Family {
+        final String type;
+        final String help;
+        final Map<String, Sample> samples = new ConcurrentHashMap<>();
+
+        Family(String type, String help) {
+            this.type = type;
+            this.help = help;
+        }
+    }
+
+    private static final Map<String, Family> FAMILIES = new LinkedHashMap<>();
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name, String help, String... labels) {
+        return (Counter) register(name, "counter", help, labels, Counter::new);
+    }
+
+    public static Histogram histogram(String name, String help, String... labels) {
+        return (Histogram) register(name, "histogram", help, labels, Histogram::new);
+    }
+
+    /**
+     * Registers a counter whose value is maintained elsewhere, i.e. by a cache.
+     */
+    public static void counter(String name, String help, LongSupplier value, String... labels) {
+        register(name, "counter", help, labels, () -> new Callback(value));
+    }
+
+    /**
+     * Registers a gauge whose value is read when the metrics are scraped.
+     */
+    public static void gauge(String name, String help, LongSupplier value, String... labels) {
+        register(name, "gauge", help, labels, () -> new Callback(value));
+    }
+
+    /**
+     * Wraps a route to record its latency in {@code proxy_request_duration_seconds} and write its access record.
+     * Requests the route hands over to the static file handler, by returning null, are not logged.
+     */
+    public static Route timed(String path, Route route) {
+        Histogram latency = histogram("proxy_request_duration_seconds", "Time spent handling requests", "route", path);
+        return (request, response) -> {
+            long start = System.nanoTime();
+            Object body = null;
+            boolean failed = true;
+            try {
+                body = route.handle(request, response);
+                failed = false;
+                return body;
+            } finally {
+                long nanos = System.nanoTime() - start;
+                latency.record(nanos);
+                if (failed || body != null) {
+                    // Spark sets the default status after the route returned
+                    int status = failed ? 500 : response.raw().getStatus();
+                    Log.access(path, request, status != 0 ? status : 200, nanos);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return all metrics in the Prometheus text format
+     */
+    public static String scrape() {
+        StringBuilder out = new StringBuilder(8192);
+        synchronized (FAMILIES) {
+            for (Map.Entry<String, Family> entry : FAMILIES.entrySet()) {
+                Family family = entry.getValue();
+                out.append("# HELP ").append(entry.getKey()).append(' ').append(family.help).append('\n');
+                out.append("# TYPE ").append(entry.getKey()).append(' ').append(family.type).append('\n');
+                for (Map.Entry<String, Sample> sample : family.samples.entrySet()) {
+                    sample.getValue().write(out, entry.getKey(), sample.getKey());
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private interface SampleFactory {
+        Sample create();
+    }
+
+    private static Sample register(String name, String type, String help, String[] labels, SampleFactory factory) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be given as name/value pairs: " + name);
+        }
+        StringBuilder labelString = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (labelString.length() > 0) {
+                labelString.append(',');
+            }
+            labelString.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+        }
+
+        Family family;
+        synchronized (FAMILIES) {
+            family = FAMILIES.computeIfAbsent(name, key -> new Family(type, help));
+        }
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException(name + " is already registered as " + family.type);
+        }
+        return family.samples.computeIfAbsent(labelString.toString(), key -> factory.create());
+    }
+
+    private static String withLabel(String labels, String name, String value) {
+        String label = name + "=\"" + value + "\"";
+        return labels.isEmpty() ? label : labels + "," + label;
+    }
+
+    private static void line(StringBuilder out, String name, String labels, Object value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,130 @@
+package org.wildfly.cdn;
+
+import spark.Request;
+import spark.Route;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Runs routes that wait on the upstream repository outside of Jetty's thread pool.
+ * <p>
+ * The request is put into async mode and handed to a separate executor, so the Jetty worker
+ * returns immediately and stays available for static files and metadata. The executor uses
+ * virtual threads if the JVM has them and a fixed pool of platform threads otherwise.
+ * Either way at most {@code concurrency} requests are in progress; requests beyond that
+ * are turned away with a 503 instead of queueing up behind slow downloads. Requests that can be
+ * answered right away, i.e. redirects to content that is already there, stay on the Jetty thread
+ * and don't count against that limit, so a burst of downloads never turns them away.
+ *
+ * @since 18/10/26
+ */
+public class Offload {
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final Metrics.Counter rejected;
+
+    public Offload(String name, int concurrency) {
+        this.executor = newExecutor(name, concurrency);
+        this.permits = new Semaphore(concurrency);
+        this.rejected = Metrics.counter("proxy_offload_rejected_total",
+                "Requests turned away because the offload executor was busy", "executor", name);
+        Metrics.gauge("proxy_offload_active", "Requests running on the offload executor",
+                () -> concurrency - permits.availablePermits(), "executor", name);
+    }
+
+    /**
+     * @return a route that runs {@code route} on this executor
+     */
+    public Route wrap(Route route) {
+        return wrap(request -> false, route);
+    }
+
+    /**
+     * @param inline whether a request can be answered without waiting, it then runs on the calling thread
+     * @return a route that runs {@code route} on this executor, unless {@code inline} holds for the request
+     */
+    public Route wrap(Predicate<Request> inline, Route route) {
+        return (request, response) -> {
+            if (inline.test(request)) {
+                return route.handle(request, response);
+            }
+            if (!permits.tryAcquire()) {
+                rejected.inc();
+                response.status(503);
+                response.header("Retry-After", "1");
+                return "Too many pending downloads, please retry";
+            }
+
+            HttpServletRequest raw = request.raw();
+            if (!raw.isAsyncSupported()) {
+                try {
+                    return route.handle(request, response);
+                } finally {
+                    permits.release();
+                }
+            }
+
+            // Spark writes the (empty) body of this route once it returns and picks
+            // text/html unless a type is set. Settle that here rather than racing the worker.
+            response.type("text/plain");
+            AsyncContext async = raw.startAsync();
+            async.setTimeout(0); // the routes bound their own waits
+            try {
+                executor.execute(() -> {
+                    try {
+                        complete(response.raw(), route.handle(request, response));
+                    } catch (Exception e) {
+                        Log.warn("Failed to handle " + raw.getRequestURI(), e);
+                        if (!response.raw().isCommitted()) {
+                            response.status(500);
+                        }
+                    } finally {
+                        async.complete();
+                        permits.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                response.status(503);
+                async.complete();
+            }
+            return "";
+        };
+    }
+
+    private static void complete(HttpServletResponse response, Object body) throws IOException {
+        if (body != null && !response.isCommitted()) {
+            response.getOutputStream().write(body.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Virtual threads when running on Java 21 or later, a pool of daemon threads otherwise
+     */
+    private static ExecutorService newExecutor(String name, int concurrency) {
+        try {
+            ExecutorService virtual = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            Log.info("Offloading " + name + " requests to virtual threads");
+            return virtual;
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newFixedThreadPool(concurrency, runnable -> {
+                Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
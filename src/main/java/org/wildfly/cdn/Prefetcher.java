@@ -0,0 +1,88 @@
+package org.wildfly.cdn;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads the newest releases before anybody asks for them, so that the first request
+ * for a new version is a redirect rather than a download.
+ * <p>
+ * Versions are fetched one at a time on a background thread and at a limited rate,
+ * to leave bandwidth and download slots to the requests of actual users.
+ *
+ * @since 18/10/26
+ */
+public class Prefetcher {
+
+    private final Releases releases;
+    private final String repositoryUrl;
+    private final int count;
+    private final long bytesPerSecond;
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+    private final ThreadPoolExecutor executor;
+
+    private final Metrics.Counter prefetched = Metrics.counter("proxy_prefetch_total",
+            "Releases prefetched in the background by result", "result", "success");
+    private final Metrics.Counter failed = Metrics.counter("proxy_prefetch_total",
+            "Releases prefetched in the background by result", "result", "failure");
+
+    /**
+     * @param count how many of the newest versions to keep available
+     * @param bytesPerSecond download rate per version, 0 for none
+     */
+    public Prefetcher(Releases releases, String repositoryUrl, int count, long bytesPerSecond) {
+        this.releases = releases;
+        this.repositoryUrl = repositoryUrl;
+        this.count = count;
+        this.bytesPerSecond = bytesPerSecond;
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(count, 1)), runnable -> {
+                    Thread thread = new Thread(runnable, "prefetch");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+    }
+
+    /**
+     * Schedules the newest versions of a metadata snapshot that haven't been fetched yet.
+     */
+    public void update(Metadata.Snapshot snapshot) {
+        List<VersionedResource> versions = snapshot.getVersions();
+        for (int i = 0; i < Math.min(count, versions.size()); i++) {
+            String version = versions.get(i).getResourceName();
+            if (queued.add(version)) {
+                try {
+                    executor.execute(() -> fetch(version));
+                } catch (RejectedExecutionException e) {
+                    // still busy with earlier versions, the next snapshot will bring it up again
+                    queued.remove(version);
+                }
+            }
+        }
+    }
+
+    private void fetch(String version) {
+        try {
+            int status = releases.prefetch(version, Releases.artefactUrl(repositoryUrl, version), bytesPerSecond);
+            if (status == 200) {
+                prefetched.inc();
+            } else {
+                failed.inc();
+                Log.warn("Failed to prefetch " + version + ": HTTP " + status);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            failed.inc();
+            Log.warn("Failed to prefetch " + version, e);
+        } finally {
+            queued.remove(version);
+        }
+    }
+}
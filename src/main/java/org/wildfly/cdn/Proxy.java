@@ -2,18 +2,11 @@ package org.wildfly.cdn;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
-import java.net.URL;
-import java.net.URLConnection;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Optional;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.TimeoutException;
 
-import static java.util.stream.Collectors.joining;
 import static spark.Spark.get;
 import static spark.SparkBase.*;
 
@@ -23,20 +16,12 @@ import static spark.SparkBase.*;
  */
 public class Proxy {
 
-    private final static String DEFAULT_REPO =
-            "https://repository.jboss.org/nexus/service/local/repositories/releases/content/org/jboss/hal/release-stream/";
+    private final static String DEFAULT_REPO = Config.RELEASE_REPOSITORY;
 
-    private final static String SNAPSHOT_REPO =
-            "https://repository.jboss.org/nexus/service/local/repositories/snapshots/content/org/jboss/as/jboss-as-console/";
-
-    private final static com.github.zafarkhaja.semver.Version CORS_SUPPORT_START = com.github.zafarkhaja.semver.Version.valueOf("2.6.5");
+    private final static String SNAPSHOT_REPO = Config.SNAPSHOT_REPOSITORY;
 
     private final static String WORK_DIR = System.getProperty("java.io.tmpdir");
 
-    private static Long lastMetadataUpdate = null;
-    private static long EXPIRY_MS = 3600000; // one our
-    private static String latestVersion;
-
     public static void main(String[] args) throws Exception {
 
         /**
@@ -66,20 +51,102 @@ public class Proxy {
         if(!wwwDir.exists())
             wwwDir.mkdir();
 
-        System.out.println("public_html: "+ wwwDir.getAbsolutePath());
+        Log.info("public_html: "+ wwwDir.getAbsolutePath());
         externalStaticFileLocation(wwwDir.getAbsolutePath());
 
+        // downloads in progress, in a directory of their own so that cleaning up leaves the rest of tmpdir alone
+        final File downloadDir = new File(WORK_DIR, "downloads");
+        if(!downloadDir.exists())
+            downloadDir.mkdir();
+
         /**
-         * Locks (some operations require it)
+         * In-memory cache for hot files in public_html
          */
-        final ReentrantLock artefactLock = new ReentrantLock();
-        final ReentrantLock metaDataLock = new ReentrantLock();
-        final ReentrantLock snapshotLock = new ReentrantLock();
+        final ResourceCache resourceCache = new ResourceCache(Config.CACHE_BUDGET, Config.CACHE_MAX_ENTRY, Config.CACHE_OFF_HEAP);
+
+        /**
+         * Keeps public_html within its disk budget
+         */
+        final DiskCache diskCache = new DiskCache(wwwDir, Config.DISK_BUDGET);
+
+        /**
+         * Snapshot versions resolved to their newest artefact
+         */
+        final Snapshots snapshots = new Snapshots(SNAPSHOT_REPO);
+
+        /**
+         * Serves hot files from memory, with validators and caching headers
+         */
+        final StaticFiles staticFiles = new StaticFiles(wwwDir, resourceCache, diskCache, snapshots);
+
+        /**
+         * Release downloads (coalesced per version)
+         */
+        final Releases artefacts = new Releases(wwwDir, downloadDir.getAbsolutePath(), resourceCache, diskCache);
+
+        diskCache.onEvict(version -> {
+            artefacts.unpublish(version);
+            staticFiles.invalidate(version);
+        });
+        diskCache.open(downloadDir.getAbsolutePath());
+        artefacts.restore(diskCache.getVersions());
+
+        /**
+         * Runs the routes that wait on Nexus outside of Jetty's thread pool
+         */
+        final Offload offload = new Offload("upstream", Config.OFFLOAD_CONCURRENCY);
+
+        /**
+         * Released versions (refreshed in the background)
+         */
+        final Metadata metadata = new Metadata(DEFAULT_REPO);
+
+        /**
+         * The newest releases are downloaded before anybody asks for them
+         */
+        if (Config.PREFETCH_COUNT > 0) {
+            Prefetcher prefetcher = new Prefetcher(artefacts, DEFAULT_REPO, Config.PREFETCH_COUNT, Config.PREFETCH_RATE);
+            metadata.onUpdate(prefetcher::update);
+        }
+
+        /**
+         * Metadata of the previous run, served until it's refreshed
+         */
+        new MetadataStore(WORK_DIR).attach(metadata, snapshots);
+        metadata.start();
+        snapshots.start();
+
+        /**
+         * Snapshot downloads, one at a time per version
+         */
+        final SingleFlight<Integer> snapshotDownloads = new SingleFlight<>("snapshot", Config.DOWNLOAD_PARALLELISM);
+
+        // versions that are being published again stay on disk
+        diskCache.protect(version -> artefacts.isDownloading(version) || snapshotDownloads.isInFlight(version));
+
+        /**
+         * Admission of requests that have to download, excess ones are turned away instead of waiting
+         */
+        final Admission releaseAdmission = new Admission("/release/:version", Config.ADMISSION_LIMIT,
+                Config.ADMISSION_QUEUE, Config.ADMISSION_QUEUE_WAIT_MS, Config.ADMISSION_LATENCY_MS);
+        final Admission snapshotAdmission = new Admission("/snapshot/:version", Config.ADMISSION_LIMIT,
+                Config.ADMISSION_QUEUE, Config.ADMISSION_QUEUE_WAIT_MS, Config.ADMISSION_LATENCY_MS);
+
+        /**
+         * Metrics of the in-memory cache
+         */
+        Metrics.counter("proxy_cache_requests_total", "Cache lookups by cache and result",
+                resourceCache::getHits, "cache", "resources", "result", "hit");
+        Metrics.counter("proxy_cache_requests_total", "Cache lookups by cache and result",
+                resourceCache::getMisses, "cache", "resources", "result", "miss");
+        Metrics.counter("proxy_cache_evictions_total", "Entries evicted from the in-memory cache",
+                resourceCache::getEvictions);
+        Metrics.gauge("proxy_cache_size_bytes", "Bytes held by the in-memory cache", resourceCache::getSize);
 
         /**
          * retrieve the homepage (/index.html)
          */
-        get("/", (request, response) -> {
+        get("/", Metrics.timed("/", (request, response) -> {
             InputStream input = Proxy.class.getResourceAsStream("/index.html");
             ByteArrayOutputStream out = new ByteArrayOutputStream();
             Files.pipe(input, out);
@@ -87,120 +154,131 @@ public class Proxy {
             response.header("x-server-version", Version.VERSION);
 
             return new String(out.toByteArray());
-        });
+        }));
 
         /**
          * retrieve the name of the latest version
          */
-        get("/latest", (request, response) -> {
+        get("/latest", Metrics.timed("/latest", (request, response) -> {
 
-            boolean aquired = metaDataLock.tryLock(5, TimeUnit.SECONDS);
-            if(aquired) {
+            Metadata.Snapshot snapshot;
+            try {
+                snapshot = metadata.get();
+            } catch (TimeoutException e) {
+                response.status(503);
+                response.header("Retry-After", "1");
+                return "Request timeout. Unable to retrieve latest version";
+            }
 
+            // the newest version of a major or minor line, i.e. /latest?major=2&minor=7
+            String latest;
+            if (request.queryParams("major") != null) {
+                VersionedResource resource;
                 try {
-                    if(metaDataExpired()) {
-                        URL url = new URL(DEFAULT_REPO);
-                        URLConnection connection = url.openConnection();
-
-                        List<VersionedResource> versions = new LinkedList<>();
-                        Xml.parseMetadata(connection.getInputStream(), versions::add);
-
-                        Collections.sort(versions);
-
-                        lastMetadataUpdate = System.currentTimeMillis();
-                        latestVersion = versions.get(0).getResourceName();
-                    }
-                } finally {
-                    metaDataLock.unlock();
+                    int major = Integer.parseInt(request.queryParams("major"));
+                    int minor = request.queryParams("minor") != null ? Integer.parseInt(request.queryParams("minor")) : -1;
+                    resource = snapshot.getIndex().getLatest(major, minor);
+                } catch (NumberFormatException e) {
+                    response.status(400);
+                    return "Invalid major or minor version";
                 }
+                if (resource == null) {
+                    response.status(404);
+                    return "No matching version";
+                }
+                latest = resource.getResourceName();
+            } else {
+                latest = snapshot.getLatestVersion();
+            }
 
-                response.type("text/plain");
-                response.header("Access-Control-Allow-Origin", "*");
-                response.header("Access-Control-Request-Method", "GET");
-                return latestVersion;
+            response.type("text/plain");
+            response.header("Access-Control-Allow-Origin", "*");
+            response.header("Access-Control-Request-Method", "GET");
+            return latest;
+        }));
 
+        get("/releases", Metrics.timed("/releases", (request, response) -> {
+
+            Metadata.Snapshot snapshot;
+            try {
+                snapshot = metadata.get();
+            } catch (TimeoutException e) {
+                response.status(503);
+                response.header("Retry-After", "1");
+                return "Request timeout. Unable to retrieve releases";
             }
-            else
-            {
-                response.status(408);
-                return "Request timeout. Unable to retrieve latest version";
+
+            // optional bounds, i.e. /releases?since=2.7&until=2.8
+            com.github.zafarkhaja.semver.Version since;
+            com.github.zafarkhaja.semver.Version until;
+            try {
+                since = request.queryParams("since") != null ? VersionIndex.parseBound(request.queryParams("since")) : null;
+                until = request.queryParams("until") != null ? VersionIndex.parseUntil(request.queryParams("until")) : null;
+            } catch (IllegalArgumentException e) {
+                response.status(400);
+                return e.getMessage();
             }
-        });
 
-        get("/releases", (request, response) -> {
-            boolean acquired = metaDataLock.tryLock(5, TimeUnit.SECONDS);
-            if (acquired) {
-                try {
-                    URL url = new URL(DEFAULT_REPO);
-                    URLConnection connection = url.openConnection();
-
-                    List<VersionedResource> versions = new LinkedList<>();
-                    Xml.parseMetadata(connection.getInputStream(), versions::add);
-
-                    String currentUrl = request.url().substring(0, request.url().indexOf("/releases"));
-                    String releases = versions.stream()
-                            .filter(version -> version.getVersion().greaterThanOrEqualTo(CORS_SUPPORT_START))
-                            .sorted(Comparator.<VersionedResource>reverseOrder())
-                            .map(version -> currentUrl + "/release/" + version.getResourceName())
-                            .collect(joining("\n"));
-                    response.type("text/plain");
-                    response.status(200);
-                    return releases;
-                } finally {
-                    metaDataLock.unlock();
-                }
-            } else {
-                response.status(408);
-                return "Request timeout. Unable to retrieve releases";
+            String currentUrl = request.url().substring(0, request.url().indexOf("/releases"));
+            Metadata.Rendered releases = snapshot.getReleases(currentUrl, since, until);
+
+            response.type("text/plain");
+            response.header("ETag", releases.getETag());
+            if (ETags.matches(request.headers("If-None-Match"), releases.getETag())) {
+                response.status(304);
+                return "";
             }
-        });
+            response.status(200);
+            response.raw().setContentLength(releases.getBody().length);
+            response.raw().getOutputStream().write(releases.getBody());
+            return "";
+        }));
 
         /**
          * retrieve a particular version and serve it
          */
-        get("/release/:version", (request, response) -> {
+        get("/release/:version", offload.wrap(
+                // redirects to published releases don't need to leave the Jetty thread
+                request -> artefacts.isAvailable(request.params(":version")),
+                Metrics.timed("/release/:version", (request, response) -> {
 
             String version = request.params(":version");
-            String fileURL = DEFAULT_REPO + version + "/release-stream-" + version + "-resources.jar";
-            String destinationDir = wwwDir.getAbsolutePath() + File.separator + version;
+            String fileURL = Releases.artefactUrl(DEFAULT_REPO, version);
 
             boolean success = false;
 
-            if(!new File(destinationDir).exists()) {
-
-                boolean aquired = artefactLock.tryLock(5, TimeUnit.SECONDS);
-                if(aquired)
-                {
-                    try {
-                        System.out.println("Download artefacts for "+ version);
-                        Optional<String> fileLocation = Files.downloadFile(fileURL, WORK_DIR);
-                        if (fileLocation.isPresent()) {
-                            success = Files.unzipJar(destinationDir, fileLocation.get());
-                            if(success) {
-                                response.status(200);
-                            }
-                            else {
-                                response.status(500);
-                            }
-
-                        }
-                        else
-                        {
-                            response.status(404);
-                        }
-                    } finally {
-                        artefactLock.unlock();
+            if(!artefacts.isPublished(version)) {
+                // joining a download that is already running adds no work upstream
+                Admission.Permit permit = null;
+                if (!artefacts.isDownloading(version)) {
+                    Log.outcome(request, version, Log.MISS);
+                    permit = releaseAdmission.tryAcquire();
+                    if (permit == null) {
+                        Log.outcome(request, version, Log.REJECTED);
+                        releaseAdmission.retryLater(response);
+                        return "Too many pending downloads, please retry";
                     }
+                } else {
+                    Log.outcome(request, version, Log.JOINED);
                 }
-                else
-                {
-                    response.status(408);
-                    System.out.println("Request timeout. Failed to quire lock on version "+version);
+                boolean timedOut = false;
+                try {
+                    int status = artefacts.provide(version, fileURL);
+                    response.status(status);
+                    success = status == 200;
+                } catch (TimeoutException e) {
+                    timedOut = true;
+                    Log.outcome(request, version, Log.TIMEOUT);
+                    releaseAdmission.retryLater(response);
+                } finally {
+                    if (permit != null) {
+                        permit.release(timedOut);
+                    }
                 }
             }
             else
             {
-                System.out.println("Serving cached version : "+version);
+                Log.outcome(request, version, Log.HIT);
                 success = true;
             }
 
@@ -208,26 +286,27 @@ public class Proxy {
                 response.redirect("/"+version);
 
             return success ? fileURL : version + " can not be found";
-        });
+        })));
 
 
         /**
          * retrieve a particular snapshot and serve it
          */
-        get("/snapshot/:version", (request, response) -> {
+        get("/snapshot/:version", offload.wrap(
+                request -> {
+                    String version = request.params(":version");
+                    VersionedResource resolved = snapshots.getResolved(version);
+                    return resolved != null && new File(new File(wwwDir, version), resolved.getResourceName()).exists();
+                },
+                Metrics.timed("/snapshot/:version", (request, response) -> {
 
             String version = request.params(":version");
-            String xmlURL = SNAPSHOT_REPO + version;
-
             String destinationDir = wwwDir.getAbsolutePath() + File.separator + version;
 
             // retrieve snapshot meta data and identify latest binary
-            URL url = new URL(xmlURL);
-            URLConnection connection = url.openConnection();
-
             VersionedResource snapshotResource;
             try {
-                snapshotResource = Xml.parseSnapshotMetadata(connection.getInputStream(), version);
+                snapshotResource = snapshots.resolve(version);
             } catch(Exception e) {
                 response.status(404);
                 return version + " can not be found";
@@ -239,45 +318,64 @@ public class Proxy {
 
             if(!marker.exists()) // new versions get their own marker based on the specific snapshot name
             {
+                // joining a download that is already running adds no work upstream
+                Admission.Permit permit = null;
+                if (!snapshotDownloads.isInFlight(version)) {
+                    Log.outcome(request, version, Log.MISS);
+                    permit = snapshotAdmission.tryAcquire();
+                    if (permit == null) {
+                        Log.outcome(request, version, Log.REJECTED);
+                        snapshotAdmission.retryLater(response);
+                        return "Too many pending downloads, please retry";
+                    }
+                } else {
+                    Log.outcome(request, version, Log.JOINED);
+                }
+                boolean timedOut = false;
+                try {
+                    int status = snapshotDownloads.execute(version, () -> {
+                        // requests that were queued behind this download find it done
+                        if (marker.exists()) {
+                            return 200;
+                        }
 
-                boolean aquired = snapshotLock.tryLock(5, TimeUnit.SECONDS);
-                if(aquired)
-                {
-                    try {
                         // a newer snapshot supersedes the current one
                         if(snapshotDir.exists()) {
                             Files.deleteRecursive(snapshotDir);
+                            diskCache.remove(version);
                         }
+                        staticFiles.invalidate(version);
 
                         // download and unpack new version
-                        Optional<String> fileLocation = Files.downloadFile(snapshotResource.getArtefactUrl(), WORK_DIR);
-
-                        if (fileLocation.isPresent()) {
-
-                            success = Files.unzipJar(destinationDir, fileLocation.get());
-
-                            if(success) {
-                                response.status(200);
+                        try {
+                            if (Files.downloadAndUnpack(snapshotResource.getArtefactUrl(), destinationDir, downloadDir.getAbsolutePath())) {
                                 // create marker
                                 marker.createNewFile();
-
+                                diskCache.add(version);
+                                resourceCache.warm(snapshotDir, version);
+                                return 200;
                             }
-                            else {
-                                response.status(500);
-                            }
-                        }
-                        else
-                        {
-                            response.status(404);
+                            return 404;
+                        } catch (IOException e) {
+                            Log.warn("Failed to provide snapshot " + version, e);
+                            return 500;
                         }
-                    } finally {
-                        snapshotLock.unlock();
+                    }, Config.DOWNLOAD_WAIT_MS, TimeUnit.MILLISECONDS);
+                    response.status(status);
+                    success = status == 200;
+                } catch (TimeoutException e) {
+                    timedOut = true;
+                    Log.outcome(request, version, Log.TIMEOUT);
+                    snapshotAdmission.retryLater(response);
+                } finally {
+                    if (permit != null) {
+                        permit.release(timedOut);
                     }
                 }
             }
             else
             {
-                System.out.println("Serving cached version : "+version);
+                Log.outcome(request, version, Log.HIT);
                 success = true;
             }
 
@@ -286,11 +384,19 @@ public class Proxy {
 
             return success ? snapshotResource.getArtefactUrl() : version + " can not be found";
 
+        })));
+
+        /**
+         * metrics in the Prometheus text format
+         */
+        get("/metrics", (request, response) -> {
+            response.type("text/plain; version=0.0.4");
+            return Metrics.scrape();
         });
-    }
 
-    private static boolean metaDataExpired() {
-        return (null == lastMetadataUpdate)
-                || (System.currentTimeMillis()-lastMetadataUpdate > EXPIRY_MS);
+        /**
+         * serve hot files from memory, everything else falls through to the static file location
+         */
+        get("/*", Metrics.timed("static", staticFiles));
     }
 }
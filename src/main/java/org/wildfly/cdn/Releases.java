@@ -0,0 +1,167 @@
+package org.wildfly.cdn;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Downloads and unpacks release artefacts into public_html.
+ * <p>
+ * Concurrent requests for the same version share a single download, distinct versions
+ * are processed in parallel up to {@link Config#DOWNLOAD_PARALLELISM}. A version counts as
+ * published only once it has been unpacked completely ({@link Files#isComplete(File)}),
+ * so callers never see a half written directory.
+ *
+ * @since 18/10/26
+ */
+public class Releases {
+
+    private final File wwwDir;
+    private final String workDir;
+    private final ResourceCache cache;
+    private final DiskCache disk;
+    private final SingleFlight<Integer> downloads = new SingleFlight<>("release", Config.DOWNLOAD_PARALLELISM, 1);
+    private final Set<String> published = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<String, Throttle> prefetching = new ConcurrentHashMap<>();
+
+    private final Metrics.Counter hits = Metrics.counter("proxy_cache_requests_total",
+            "Cache lookups by cache and result", "cache", "release", "result", "hit");
+    private final Metrics.Counter misses = Metrics.counter("proxy_cache_requests_total",
+            "Cache lookups by cache and result", "cache", "release", "result", "miss");
+
+    public Releases(File wwwDir, String workDir, ResourceCache cache, DiskCache disk) {
+        this.wwwDir = wwwDir;
+        this.workDir = workDir;
+        this.cache = cache;
+        this.disk = disk;
+    }
+
+    /**
+     * @return the location of the resources jar of a version
+     */
+    public static String artefactUrl(String repositoryUrl, String version) {
+        return repositoryUrl + version + "/release-stream-" + version + "-resources.jar";
+    }
+
+    public boolean isPublished(String version) {
+        boolean isPublished = published.contains(version);
+        (isPublished ? hits : misses).inc();
+        return isPublished;
+    }
+
+    /**
+     * Like {@link #isPublished(String)}, without counting a cache lookup
+     */
+    public boolean isAvailable(String version) {
+        return published.contains(version);
+    }
+
+    /**
+     * @return whether the version is being downloaded, by a request or a prefetch
+     */
+    public boolean isDownloading(String version) {
+        return downloads.isInFlight(version);
+    }
+
+    /**
+     * Publishes the releases a previous run left in public_html, so that requests for them are hits right away
+     */
+    public void restore(Collection<String> versions) {
+        for (String version : versions) {
+            if (!version.endsWith("-SNAPSHOT") && Files.isComplete(new File(wwwDir, version))) {
+                published.add(version);
+            }
+        }
+    }
+
+    /**
+     * Forgets a version whose directory is about to be deleted
+     */
+    public void unpublish(String version) {
+        published.remove(version);
+    }
+
+    /**
+     * Makes sure a version is available in public_html.
+     *
+     * @param version the release version
+     * @param fileURL the location of the resources jar
+     * @return 200 if the version is available, 404 if it doesn't exist upstream and 500 if unpacking failed
+     * @throws TimeoutException if the download didn't finish within {@link Config#DOWNLOAD_WAIT_MS}
+     */
+    public int provide(String version, String fileURL)
+            throws InterruptedException, ExecutionException, TimeoutException {
+
+        if (published.contains(version)) {
+            return 200;
+        }
+        // somebody is waiting for a prefetch now, let it run at full speed
+        Throttle throttle = prefetching.get(version);
+        if (throttle != null) {
+            throttle.lift();
+        }
+        return downloads.execute(version, () -> unpack(version, fileURL, null),
+                Config.DOWNLOAD_WAIT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Downloads a version ahead of the first request, reading at most {@code bytesPerSecond}.
+     * Blocks until the version is available or failed. Prefetches run one at a time, on a download slot of their own,
+     * so that they never take one from a request.
+     *
+     * @return the same status codes as {@link #provide(String, String)}
+     */
+    public int prefetch(String version, String fileURL, long bytesPerSecond)
+            throws InterruptedException, ExecutionException, TimeoutException {
+
+        if (published.contains(version)) {
+            return 200;
+        }
+        Throttle throttle = new Throttle(bytesPerSecond);
+        prefetching.put(version, throttle);
+        try {
+            return downloads.executeInBackground(version, () -> unpack(version, fileURL, throttle),
+                    Config.DOWNLOAD_WAIT_MS, TimeUnit.MILLISECONDS);
+        } finally {
+            prefetching.remove(version, throttle);
+        }
+    }
+
+    private int unpack(String version, String fileURL, Throttle throttle) throws IOException {
+
+        // unpacked by a previous run, or by a flight that completed after our first check
+        File destinationDir = new File(wwwDir, version);
+        if (Files.isComplete(destinationDir)) {
+            published.add(version);
+            return 200;
+        }
+
+        Log.info("Download artefacts for " + version);
+        try {
+            if (!Files.downloadAndUnpack(fileURL, destinationDir.getAbsolutePath(), workDir, throttle)) {
+                return 404;
+            }
+        } catch (IOException e) {
+            // nothing has been published, the next request starts over
+            Log.warn("Failed to provide " + version, e);
+            return 500;
+        }
+        published.add(version);
+        disk.add(version);
+        warm(destinationDir, version);
+        return 200;
+    }
+
+    private void warm(File destinationDir, String version) {
+        try {
+            cache.warm(destinationDir, version);
+        } catch (IOException e) {
+            Log.warn("Failed to warm cache for " + version, e);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package org.wildfly.cdn;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the content of frequently requested files from public_html in memory.
+ * <p>
+ * The cache is bounded by a byte budget and evicts the least recently used entries once the budget is exceeded.
+ * Lookups don't lock anything, they only record the time of the access. The order is established when
+ * entries have to be evicted, which happens while loading a file, on the miss path.
+ * Content can either live on the heap or in direct buffers, so that large bundles don't add GC pressure.
+ *
+ * @since 18/10/26
+ */
+public class ResourceCache {
+
+    /**
+     * A cached file. The content buffer is shared, callers have to work on a {@link ByteBuffer#duplicate()}.
+     */
+    public static final class Entry {
+        private final ByteBuffer content;
+        private final long lastModified;
+
+        Entry(ByteBuffer content, long lastModified) {
+            this.content = content;
+            this.lastModified = lastModified;
+        }
+
+        public int size() {
+            return content.capacity();
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+            ByteBuffer view = content.duplicate();
+            if (view.hasArray()) {
+                out.write(view.array(), view.arrayOffset(), view.remaining());
+            } else {
+                Channels.newChannel(out).write(view);
+            }
+        }
+    }
+
+    /**
+     * An entry in the map, with the time it was last used
+     */
+    private static final class Node {
+        final Entry entry;
+        volatile long lastAccess = System.nanoTime();
+
+        Node(Entry entry) {
+            this.entry = entry;
+        }
+    }
+
+    private final long budget;
+    private final long maxEntrySize;
+    private final boolean offHeap;
+
+    private final ConcurrentHashMap<String, Node> entries = new ConcurrentHashMap<>(256);
+    private final AtomicLong size = new AtomicLong();
+    private final ReentrantLock evicting = new ReentrantLock();
+
+    /**
+     * Bumped by {@link #invalidate(String)}, per version
+     */
+    private final ConcurrentHashMap<String, Long> generations = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ResourceCache(long budget, long maxEntrySize, boolean offHeap) {
+        this.budget = budget;
+        this.maxEntrySize = Math.min(maxEntrySize, budget);
+        this.offHeap = offHeap;
+    }
+
+    public Entry get(String key) {
+        Node node = entries.get(key);
+        if (node == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        node.lastAccess = System.nanoTime();
+        hits.incrementAndGet();
+        return node.entry;
+    }
+
+    public boolean accepts(long length) {
+        return length <= maxEntrySize;
+    }
+
+    /**
+     * Reads a file into the cache, evicting least recently used entries if necessary.
+     *
+     * @return the cached entry, or null if the file is too large to be cached
+     */
+    public Entry load(String key, File file) throws IOException {
+        return load(key, file, generation(key));
+    }
+
+    /**
+     * @param generation of the key's version when the caller decided to read the file. If the version has been
+     * invalidated since, the file may be the one that was replaced: the entry is returned, but not cached.
+     */
+    Entry load(String key, File file, long generation) throws IOException {
+        if (!accepts(file.length())) {
+            return null;
+        }
+        Entry entry = new Entry(wrap(java.nio.file.Files.readAllBytes(file.toPath())), file.lastModified());
+        Node node = new Node(entry);
+        Node previous = entries.put(key, node);
+        size.addAndGet(entry.size() - (previous != null ? previous.entry.size() : 0));
+
+        // an invalidation that started before the put may have missed it
+        if (generation(key) != generation) {
+            remove(key, node);
+            return entry;
+        }
+        evict();
+        return entry;
+    }
+
+    /**
+     * Fills the cache from a freshly unpacked directory, as long as there is budget left.
+     * Nothing gets evicted for this.
+     *
+     * @param prefix the key prefix of the files in this directory, i.e. the version
+     */
+    public void warm(File dir, String prefix) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String key = prefix + "/" + file.getName();
+            if (file.isDirectory()) {
+                warm(file, key);
+            } else if (isHot(file.getName()) && accepts(file.length())) {
+                if (size.get() + file.length() > budget) {
+                    return;
+                }
+                load(key, file);
+            }
+        }
+    }
+
+    /**
+     * Drops all entries below the given prefix, i.e. of a version that has been replaced or removed.
+     * Loads of the version that started before are not cached.
+     */
+    public void invalidate(String prefix) {
+        generations.merge(prefix, 1L, Long::sum);
+        String directory = prefix + "/";
+        for (Map.Entry<String, Node> next : entries.entrySet()) {
+            if (next.getKey().startsWith(directory)) {
+                remove(next.getKey(), next.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return the number of invalidations of the version a key belongs to
+     */
+    long generation(String key) {
+        int slash = key.indexOf('/');
+        return generations.getOrDefault(slash != -1 ? key.substring(0, slash) : key, 0L);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getSize() {
+        return size.get();
+    }
+
+    private boolean remove(String key, Node node) {
+        if (entries.remove(key, node)) {
+            size.addAndGet(-node.entry.size());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Removes the least recently used entries until the cache is within its budget. Only runs on the miss path,
+     * and only one thread at a time, others that overshoot the budget meanwhile leave it to that thread.
+     */
+    private void evict() {
+        if (size.get() <= budget || !evicting.tryLock()) {
+            return;
+        }
+        try {
+            List<Map.Entry<String, Node>> candidates = new ArrayList<>(entries.entrySet());
+            candidates.sort((a, b) -> Long.compare(a.getValue().lastAccess, b.getValue().lastAccess));
+            for (Map.Entry<String, Node> eldest : candidates) {
+                if (size.get() <= budget) {
+                    break;
+                }
+                if (remove(eldest.getKey(), eldest.getValue())) {
+                    evictions.incrementAndGet();
+                }
+            }
+        } finally {
+            evicting.unlock();
+        }
+    }
+
+    private ByteBuffer wrap(byte[] content) {
+        if (!offHeap) {
+            return ByteBuffer.wrap(content);
+        }
+        ByteBuffer direct = ByteBuffer.allocateDirect(content.length);
+        direct.put(content);
+        direct.flip();
+        return direct;
+    }
+
+    private static boolean isHot(String name) {
+        return name.endsWith(".js") || name.endsWith(".css") || name.endsWith(".html");
+    }
+}
@@ -0,0 +1,123 @@
+package org.wildfly.cdn;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Coalesces concurrent work on the same key: the first caller runs the task,
+ * everybody else arriving in the meantime waits for the same outcome.
+ * Tasks for distinct keys run in parallel, bounded by the given parallelism. Background tasks have permits
+ * of their own, so that they never hold up the tasks of requests, but they are coalesced with them all the same.
+ *
+ * @since 18/10/26
+ */
+public class SingleFlight<T> {
+
+    private final ConcurrentHashMap<String, CompletableFuture<T>> inFlight = new ConcurrentHashMap<>();
+    private final Semaphore permits;
+    private final Semaphore backgroundPermits;
+    private final Metrics.Histogram waits;
+    private final Metrics.Counter timeouts;
+
+    /**
+     * @param name identifies this instance in the lock metrics
+     */
+    public SingleFlight(String name, int parallelism) {
+        this(name, parallelism, 1);
+    }
+
+    /**
+     * @param backgroundParallelism tasks started by {@link #executeInBackground} that may run at the same time,
+     * in addition to the {@code parallelism} of all others
+     */
+    public SingleFlight(String name, int parallelism, int backgroundParallelism) {
+        this.permits = new Semaphore(parallelism, true);
+        this.backgroundPermits = new Semaphore(backgroundParallelism, true);
+        this.waits = Metrics.histogram("proxy_lock_wait_seconds", "Time spent waiting for a lock or a shared task", "lock", name);
+        this.timeouts = Metrics.counter("proxy_lock_timeouts_total", "Waits for a lock or a shared task that timed out", "lock", name);
+    }
+
+    /**
+     * Runs the task for the given key, or joins a task that is already running for it.
+     * <p>
+     * The timeout bounds the wait for a permit and, for callers that join, the wait for the shared result.
+     * The caller that runs the task waits for it to complete however long it takes.
+     *
+     * @throws TimeoutException if no permit or, when joining, no shared result became available in time,
+     * or if the caller whose task was joined timed out waiting for a permit. A shared task that is running
+     * keeps running for the callers that are still waiting.
+     * @throws ExecutionException if the task failed
+     */
+    public T execute(String key, Callable<T> task, long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        return execute(key, task, timeout, unit, permits);
+    }
+
+    /**
+     * Like {@link #execute}, for work nobody is waiting for yet. The task runs on a permit of the background pool,
+     * callers of {@link #execute} that arrive in the meantime join it.
+     */
+    public T executeInBackground(String key, Callable<T> task, long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        return execute(key, task, timeout, unit, backgroundPermits);
+    }
+
+    private T execute(String key, Callable<T> task, long timeout, TimeUnit unit, Semaphore permits)
+            throws InterruptedException, ExecutionException, TimeoutException {
+
+        CompletableFuture<T> flight = new CompletableFuture<>();
+        CompletableFuture<T> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            long start = System.nanoTime();
+            try {
+                return existing.get(timeout, unit);
+            } catch (TimeoutException e) {
+                timeouts.inc();
+                throw e;
+            } catch (ExecutionException e) {
+                // the task never ran, it's a timeout for everybody who waited for it
+                if (e.getCause() instanceof TimeoutException) {
+                    timeouts.inc();
+                    throw (TimeoutException) e.getCause();
+                }
+                throw e;
+            } finally {
+                waits.recordSince(start);
+            }
+        }
+
+        try {
+            long start = System.nanoTime();
+            boolean acquired = permits.tryAcquire(timeout, unit);
+            waits.recordSince(start);
+            if (!acquired) {
+                timeouts.inc();
+                TimeoutException timedOut = new TimeoutException("No permit available for " + key);
+                flight.completeExceptionally(timedOut);
+                throw timedOut;
+            }
+            try {
+                flight.complete(task.call());
+            } catch (Exception e) {
+                flight.completeExceptionally(e);
+            } finally {
+                permits.release();
+            }
+        } catch (InterruptedException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+        return flight.get();
+    }
+
+    public boolean isInFlight(String key) {
+        return inFlight.containsKey(key);
+    }
+}
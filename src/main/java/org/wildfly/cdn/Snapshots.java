@@ -0,0 +1,226 @@
+package org.wildfly.cdn;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Resolves a snapshot version to its newest resources jar.
+ * <p>
+ * Resolutions are cached and kept up to date by a background poller, so resolving a version that has been
+ * requested recently is a map lookup. Only versions seen for the first time, or not requested for a while,
+ * are resolved on the request path, with concurrent requests sharing one upstream call.
+ * The listing of every version is fetched conditionally: as long as Nexus answers with 304,
+ * the previously resolved artefact is reused without downloading and parsing the listing again.
+ *
+ * @since 18/10/26
+ */
+public class Snapshots {
+
+    /**
+     * Versions that haven't been requested for this long are no longer polled
+     */
+    private static final long IDLE_MS = TimeUnit.DAYS.toMillis(1);
+
+    static final class Resolution {
+        private final VersionedResource resource;
+        private final Upstream.Validators validators;
+        private final long resolvedAt;
+        private volatile long lastAccess;
+
+        Resolution(VersionedResource resource, Upstream.Validators validators, long resolvedAt) {
+            this.resource = resource;
+            this.validators = validators;
+            this.resolvedAt = resolvedAt;
+            this.lastAccess = resolvedAt;
+        }
+
+        VersionedResource getResource() {
+            return resource;
+        }
+
+        Upstream.Validators getValidators() {
+            return validators;
+        }
+
+        long getResolvedAt() {
+            return resolvedAt;
+        }
+
+        boolean isExpired() {
+            // a missed poll is fine, a resolution the poller has given up on is not
+            return System.currentTimeMillis() - resolvedAt > 2 * Config.SNAPSHOT_POLL_MS;
+        }
+    }
+
+    private final String repositoryUrl;
+    private final ConcurrentHashMap<String, Resolution> resolutions = new ConcurrentHashMap<>();
+    private final SingleFlight<Resolution> flights = new SingleFlight<>("snapshot-resolve", Config.DOWNLOAD_PARALLELISM);
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "snapshot-poll");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Metrics.Counter hits = Metrics.counter("proxy_cache_requests_total",
+            "Cache lookups by cache and result", "cache", "snapshot", "result", "hit");
+    private final Metrics.Counter stale = Metrics.counter("proxy_cache_requests_total",
+            "Cache lookups by cache and result", "cache", "snapshot", "result", "stale");
+    private final Metrics.Counter misses = Metrics.counter("proxy_cache_requests_total",
+            "Cache lookups by cache and result", "cache", "snapshot", "result", "miss");
+
+    public Snapshots(String repositoryUrl) {
+        this.repositoryUrl = repositoryUrl;
+    }
+
+    /**
+     * Polls the versions that have been requested recently every {@link Config#SNAPSHOT_POLL_MS}
+     */
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::poll, Config.SNAPSHOT_POLL_MS, Config.SNAPSHOT_POLL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Registers a listener that is called with the version whenever a resolution changed
+     */
+    public void onUpdate(Consumer<String> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Starts out with the resolutions persisted by a previous run
+     */
+    void restore(Map<String, Resolution> persisted) {
+        resolutions.putAll(persisted);
+    }
+
+    Map<String, Resolution> getResolutions() {
+        return Collections.unmodifiableMap(resolutions);
+    }
+
+    /**
+     * @return the newest resources jar of the given snapshot version.
+     * If Nexus can't be reached, the last known resolution is returned.
+     * @throws FileNotFoundException if the version or its resources jar doesn't exist
+     */
+    public VersionedResource resolve(String version) throws IOException {
+        Resolution current = resolutions.get(version);
+        if (current != null) {
+            current.lastAccess = System.currentTimeMillis();
+            if (!current.isExpired()) {
+                hits.inc();
+                return current.resource;
+            }
+            stale.inc();
+        } else {
+            misses.inc();
+        }
+
+        try {
+            return flights.execute(version, () -> fetch(version), Config.DOWNLOAD_WAIT_MS, TimeUnit.MILLISECONDS).resource;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof FileNotFoundException) {
+                throw (FileNotFoundException) cause;
+            }
+            if (current == null) {
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            }
+            Log.warn("Failed to resolve " + version + ", serving the last known snapshot", cause);
+            return current.resource;
+        } catch (TimeoutException e) {
+            if (current == null) {
+                throw new IOException("Timeout resolving " + version);
+            }
+            return current.resource;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while resolving " + version);
+        }
+    }
+
+    /**
+     * @return the resolution {@link #resolve(String)} would return without going upstream, or null if there is none
+     */
+    public VersionedResource getResolved(String version) {
+        Resolution current = resolutions.get(version);
+        return current != null && !current.isExpired() ? current.resource : null;
+    }
+
+    /**
+     * Refreshes the resolutions of all versions that have been requested within the last day
+     */
+    void poll() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Resolution> entry : resolutions.entrySet()) {
+            if (now - entry.getValue().lastAccess > IDLE_MS) {
+                continue;
+            }
+            try {
+                flights.execute(entry.getKey(), () -> fetch(entry.getKey()), Config.DOWNLOAD_WAIT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                Log.warn("Failed to poll " + entry.getKey(), e);
+            }
+        }
+    }
+
+    private Resolution fetch(String version) throws IOException {
+        Resolution previous = resolutions.get(version);
+        Upstream.Validators validators = previous != null ? previous.validators : Upstream.Validators.NONE;
+
+        try (Upstream.Response response = Upstream.get(repositoryUrl + version, validators)) {
+            if (response.isNotModified() && previous != null) {
+                Resolution confirmed = new Resolution(previous.resource, previous.validators, System.currentTimeMillis());
+                confirmed.lastAccess = previous.lastAccess;
+                resolutions.put(version, confirmed);
+                return confirmed;
+            }
+            if (response.getStatus() != 200) {
+                forget(version);
+                throw new FileNotFoundException(version + ": HTTP " + response.getStatus());
+            }
+
+            VersionedResource resource;
+            try {
+                resource = Xml.parseSnapshotMetadata(response.getBody(), version);
+            } catch (RuntimeException e) {
+                forget(version);
+                throw new FileNotFoundException(version + ": " + e.getMessage());
+            }
+            Resolution resolution = new Resolution(resource, response.getValidators(), System.currentTimeMillis());
+            if (previous != null) {
+                resolution.lastAccess = previous.lastAccess;
+            }
+            resolutions.put(version, resolution);
+            changed(version);
+            return resolution;
+        }
+    }
+
+    private void forget(String version) {
+        if (resolutions.remove(version) != null) {
+            changed(version);
+        }
+    }
+
+    private void changed(String version) {
+        for (Consumer<String> listener : listeners) {
+            listener.accept(version);
+        }
+    }
+}
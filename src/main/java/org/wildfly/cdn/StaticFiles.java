@@ -0,0 +1,285 @@
+package org.wildfly.cdn;
+
+import org.eclipse.jetty.http.MimeTypes;
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serves files from public_html out of the {@link ResourceCache}.
+ * <p>
+ * Text files are served from their precompressed {@code .gz} variant if the client accepts gzip.
+ * Released versions never change and are served as immutable, snapshots get a short max-age.
+ * Both carry the strong entity tags from {@link ETags} and are revalidated with {@code If-None-Match}.
+ * Versions that have been kept as a jar are served from their {@link JarIndex}.
+ * Requests this route doesn't handle (directories and missing files) return {@code null},
+ * which makes Spark hand them over to the regular static file handler. Paths that are rejected,
+ * i.e. because they point outside of public_html, are answered with 404 right here.
+ *
+ * @since 18/10/26
+ */
+public class StaticFiles implements Route {
+
+    private static final MimeTypes MIME_TYPES = new MimeTypes();
+
+    private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+
+    private static final String WELCOME_FILE = "index.html";
+
+    private final File wwwDir;
+    private final String wwwRoot;
+    private final ResourceCache cache;
+    private final ETags etags;
+    private final DiskCache disk;
+    private final ConcurrentHashMap<String, Optional<JarIndex>> jars = new ConcurrentHashMap<>();
+
+    public StaticFiles(File wwwDir, ResourceCache cache, DiskCache disk, Snapshots snapshots) throws IOException {
+        this.wwwDir = wwwDir;
+        this.wwwRoot = wwwDir.getCanonicalPath() + File.separator;
+        this.cache = cache;
+        this.disk = disk;
+        this.etags = new ETags(wwwDir, snapshots::getResolved);
+    }
+
+    /**
+     * Forgets everything about a version that has been replaced or removed.
+     */
+    public void invalidate(String version) {
+        cache.invalidate(version);
+        etags.invalidate(version);
+        jars.remove(version);
+    }
+
+    @Override
+    public Object handle(Request request, Response response) throws Exception {
+        String uri = request.uri();
+        String path = relativePath(uri.endsWith("/") ? uri + WELCOME_FILE : uri);
+        if (path == null) {
+            // i.e. a path with "..", which the static file handler must not see either
+            response.status(404);
+            return "Not found";
+        }
+        int slash = path.indexOf('/');
+        String version = slash != -1 ? path.substring(0, slash) : null;
+        if (version != null) {
+            disk.touch(version);
+        }
+        if (isHidden(path)) {
+            // manifests and other internals of the version directories
+            response.status(404);
+            return "Not found";
+        }
+
+        String ifNoneMatch = request.headers("If-None-Match");
+        HttpServletResponse raw = response.raw();
+        String mimeType = MIME_TYPES.getMimeByExtension(path);
+        String contentType = mimeType != null ? mimeType : "application/octet-stream";
+
+        boolean gzip = false;
+        String outcome = null;
+        if (Files.isCompressible(path)) {
+            raw.setHeader("Vary", "Accept-Encoding");
+            gzip = acceptsGzip(request.headers("Accept-Encoding"));
+            if (gzip) {
+                outcome = serve(path + Files.GZIP_SUFFIX, contentType, "gzip", ifNoneMatch, raw);
+            }
+        }
+        if (outcome == null) {
+            outcome = serve(path, contentType, null, ifNoneMatch, raw);
+        }
+        if (outcome == null) {
+            outcome = serveFromJar(path, contentType, gzip, ifNoneMatch, raw);
+        }
+        if (outcome == null) {
+            return null;
+        }
+        Log.outcome(request, version, outcome);
+        return "";
+    }
+
+    /**
+     * Serves a file of a version that has been kept as a jar ({@link Config#SERVE_FROM_JAR}).
+     * Deflated entries are sent as gzip if the client accepts it, and inflated otherwise.
+     *
+     * @return the cache outcome, or null if the jar has no such entry
+     */
+    private String serveFromJar(String path, String contentType, boolean gzip, String ifNoneMatch,
+            HttpServletResponse raw) throws IOException {
+
+        int slash = path.indexOf('/');
+        if (slash == -1) {
+            return null;
+        }
+        String version = path.substring(0, slash);
+        JarIndex jar = jar(version);
+        JarIndex.Entry entry = jar != null ? jar.get(path.substring(slash + 1)) : null;
+        if (entry == null) {
+            return null;
+        }
+
+        boolean asGzip = gzip && entry.isDeflated();
+        String etag = entry.getETag(asGzip);
+        raw.setContentType(contentType);
+        raw.setHeader("Cache-Control", cacheControl(version));
+        raw.setHeader("ETag", etag);
+        if (ETags.matches(ifNoneMatch, etag)) {
+            raw.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return Log.NOT_MODIFIED;
+        }
+
+        raw.setDateHeader("Last-Modified", jar.getLastModified());
+        if (asGzip) {
+            raw.setHeader("Content-Encoding", "gzip");
+            raw.setContentLength(entry.getGzipSize());
+            entry.writeGzipTo(raw.getOutputStream());
+        } else {
+            raw.setContentLength(entry.getSize());
+            entry.writeTo(raw.getOutputStream());
+        }
+        return Log.HIT;
+    }
+
+    /**
+     * @return the index of the jar a version has been kept as, or null if it has been unpacked or isn't available
+     */
+    private JarIndex jar(String version) throws IOException {
+        Optional<JarIndex> jar = jars.get(version);
+        if (jar == null) {
+            File dir = new File(wwwDir, version);
+            if (!Files.isComplete(dir)) {
+                // not (yet) published, don't remember that
+                return null;
+            }
+            File file = new File(dir, Files.JAR);
+            jar = file.isFile() ? Optional.of(JarIndex.open(file)) : Optional.empty();
+            Optional<JarIndex> existing = jars.putIfAbsent(version, jar);
+            if (existing != null) {
+                jar = existing;
+            }
+        }
+        return jar.orElse(null);
+    }
+
+    private static String cacheControl(String version) {
+        return version.endsWith("-SNAPSHOT") ? "public, max-age=" + Config.SNAPSHOT_MAX_AGE : IMMUTABLE;
+    }
+
+    /**
+     * @return the cache outcome, {@link Log#MISS} if the file was read from disk, or null if there is no such file
+     */
+    private String serve(String path, String contentType, String encoding, String ifNoneMatch,
+            HttpServletResponse raw) throws IOException {
+
+        ResourceCache.Entry entry = cache.get(path);
+        String outcome = Log.HIT;
+        File file = null;
+        long generation = 0;
+        if (entry == null) {
+            outcome = Log.MISS;
+            // before looking at the file, so that a version replaced meanwhile isn't cached with the old content
+            generation = cache.generation(path);
+            file = new File(wwwDir, path);
+            if (!file.isFile() || !file.getCanonicalPath().startsWith(wwwRoot)) {
+                return null;
+            }
+        }
+
+        raw.setContentType(contentType);
+        int slash = path.indexOf('/');
+        if (slash != -1) {
+            String version = path.substring(0, slash);
+            String etag = etags.get(version, path.substring(slash + 1));
+            raw.setHeader("Cache-Control", cacheControl(version));
+            if (etag != null) {
+                raw.setHeader("ETag", etag);
+                if (ETags.matches(ifNoneMatch, etag)) {
+                    raw.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    return Log.NOT_MODIFIED;
+                }
+            }
+        }
+
+        if (entry == null) {
+            entry = cache.load(path, file, generation);
+        }
+        if (encoding != null) {
+            raw.setHeader("Content-Encoding", encoding);
+        }
+        if (entry != null) {
+            raw.setContentLength(entry.size());
+            raw.setDateHeader("Last-Modified", entry.getLastModified());
+            entry.writeTo(raw.getOutputStream());
+        } else {
+            // too large for the cache
+            raw.setHeader("Content-Length", String.valueOf(file.length()));
+            raw.setDateHeader("Last-Modified", file.lastModified());
+            java.nio.file.Files.copy(file.toPath(), raw.getOutputStream());
+        }
+        return outcome;
+    }
+
+    static boolean isHidden(String path) {
+        return path.startsWith(".") || path.contains("/.");
+    }
+
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            if ("gzip".equalsIgnoreCase(name) || "*".equals(name)) {
+                for (int i = 1; i < parts.length; i++) {
+                    String parameter = parts[i].trim().replace(" ", "");
+                    if (parameter.startsWith("q=0") && parameter.matches("q=0(\\.0*)?")) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the decoded request path without leading slash, or null if it can't be served from public_html
+     */
+    static String relativePath(String uri) {
+        String path;
+        try {
+            path = URI.create(uri).getPath();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (path == null || hasParentSegment(path) || path.endsWith("/")) {
+            return null;
+        }
+        return path.startsWith("/") ? path.substring(1) : path;
+    }
+
+    /**
+     * @return true if a segment of the path is {@code ..}, names that merely contain two dots ({@code foo..bar.js}) are fine
+     */
+    static boolean hasParentSegment(String path) {
+        for (int index = path.indexOf(".."); index != -1; index = path.indexOf("..", index + 1)) {
+            boolean startsSegment = index == 0 || isSeparator(path.charAt(index - 1));
+            boolean endsSegment = index + 2 == path.length() || isSeparator(path.charAt(index + 2));
+            if (startsSegment && endsSegment) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '/' || c == '\\';
+    }
+}
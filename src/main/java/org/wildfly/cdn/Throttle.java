@@ -0,0 +1,71 @@
+package org.wildfly.cdn;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caps the rate at which a download is read. The cap can be lifted while the download is running,
+ * i.e. once somebody is actually waiting for it.
+ *
+ * @since 18/10/26
+ */
+public class Throttle {
+
+    private volatile long bytesPerSecond;
+
+    /**
+     * @param bytesPerSecond the cap, 0 for none
+     */
+    public Throttle(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public void lift() {
+        bytesPerSecond = 0;
+    }
+
+    public InputStream wrap(InputStream in) {
+        return new FilterInputStream(in) {
+            private final long start = System.nanoTime();
+            private long bytes;
+
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b != -1) {
+                    pause(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int n = super.read(buffer, offset, length);
+                if (n > 0) {
+                    pause(n);
+                }
+                return n;
+            }
+
+            private void pause(int n) throws IOException {
+                bytes += n;
+                long rate = bytesPerSecond;
+                if (rate <= 0) {
+                    return;
+                }
+                // sleep until the bytes read so far are within the budget of the elapsed time
+                long ahead = bytes * TimeUnit.SECONDS.toNanos(1) / rate - (System.nanoTime() - start);
+                if (ahead > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(ahead);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while throttled", e);
+                    }
+                }
+            }
+        };
+    }
+}
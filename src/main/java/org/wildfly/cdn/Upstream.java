@@ -0,0 +1,304 @@
+package org.wildfly.cdn;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests against the upstream repository, optionally conditional.
+ * <p>
+ * All requests share the keep-alive connections pooled by {@link HttpURLConnection}, are bounded by connect and read
+ * timeouts, and are limited to {@link Config#UPSTREAM_CONNECTIONS} concurrent requests per host.
+ * Connect time, time to first byte and transfer volume of all requests are recorded in {@link Metrics}.
+ *
+ * @since 18/10/26
+ */
+public class Upstream {
+
+    private static final Metrics.Histogram CONNECT = Metrics.histogram("proxy_upstream_connect_seconds",
+            "Time to establish a connection to the upstream repository");
+    private static final Metrics.Histogram FIRST_BYTE = Metrics.histogram("proxy_upstream_first_byte_seconds",
+            "Time until the upstream repository returned the response headers");
+    private static final Metrics.Histogram TRANSFER = Metrics.histogram("proxy_upstream_transfer_seconds",
+            "Time spent reading upstream response bodies");
+    private static final Metrics.Counter BYTES = Metrics.counter("proxy_upstream_bytes_total",
+            "Bytes read from the upstream repository");
+    private static final Metrics.Counter RETRIES = Metrics.counter("proxy_upstream_retries_total",
+            "Requests to the upstream repository that have been retried");
+    private static final Metrics.Counter LIMITED = Metrics.counter("proxy_upstream_limited_total",
+            "Requests that didn't get a connection to the upstream repository in time");
+
+    /**
+     * Permits for the concurrent requests per host
+     */
+    private static final ConcurrentHashMap<String, Semaphore> HOSTS = new ConcurrentHashMap<>();
+
+    static {
+        // HttpURLConnection keeps idle connections alive for reuse, at most http.maxConnections per host
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(Config.UPSTREAM_CONNECTIONS));
+        }
+    }
+
+    /**
+     * The validators a server returned for a resource. They are sent back with the next request
+     * so the server can answer with 304 if nothing changed.
+     */
+    public static final class Validators {
+
+        public static final Validators NONE = new Validators(null, null);
+
+        private final String etag;
+        private final String lastModified;
+
+        public Validators(String etag, String lastModified) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+    }
+
+    /**
+     * An open response. The body is only available for 200, and 206 in reply to a range request.
+     */
+    public static final class Response implements Closeable {
+        private final HttpURLConnection connection;
+        private final int status;
+        private final Validators validators;
+        private final Semaphore permits;
+        private InputStream body;
+        private boolean closed;
+
+        Response(HttpURLConnection connection, int status, Validators validators, Semaphore permits) {
+            this.connection = connection;
+            this.status = status;
+            this.validators = validators;
+            this.permits = permits;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public boolean isNotModified() {
+            return status == HttpURLConnection.HTTP_NOT_MODIFIED;
+        }
+
+        public Validators getValidators() {
+            return validators;
+        }
+
+        public String getHeader(String name) {
+            return connection.getHeaderField(name);
+        }
+
+        public int getContentLength() {
+            return connection.getContentLength();
+        }
+
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                body = new MeteredInputStream(connection.getInputStream());
+            }
+            return body;
+        }
+
+        /**
+         * Closes the body and hands the connection back. Connections are only kept alive for reuse
+         * if the body has been read completely, so the (short) bodies of error responses are drained.
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (status == HttpURLConnection.HTTP_OK || status == HttpURLConnection.HTTP_PARTIAL) {
+                    getBody().close();
+                } else {
+                    InputStream error = connection.getErrorStream();
+                    if (error != null) {
+                        try (InputStream in = error) {
+                            byte[] buffer = new byte[4096];
+                            while (in.read(buffer) != -1) {
+                                // discard
+                            }
+                        }
+                    }
+                }
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes read from the upstream repository and records the transfer time when closed.
+     */
+    private static final class MeteredInputStream extends FilterInputStream {
+        private final long start = System.nanoTime();
+        private boolean closed = false;
+
+        MeteredInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                BYTES.inc();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                BYTES.add(n);
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                TRANSFER.recordSince(start);
+            }
+            super.close();
+        }
+    }
+
+    /**
+     * Issues a plain GET request.
+     */
+    public static Response get(String url) throws IOException {
+        return get(url, Validators.NONE);
+    }
+
+    /**
+     * Issues a GET request, conditional on the given validators. Connection failures and
+     * temporary server errors (502, 503, 504) are retried up to {@link Config#UPSTREAM_RETRIES} times.
+     * The response must be closed, it holds one of the connections to the host.
+     */
+    public static Response get(String url, Validators validators) throws IOException {
+        return get(url, validators, 0);
+    }
+
+    /**
+     * Requests the content from {@code offset} on, which the server answers with 206.
+     * Servers that don't support ranges answer with 200 and the whole content.
+     */
+    public static Response get(String url, long offset) throws IOException {
+        return get(url, Validators.NONE, offset);
+    }
+
+    private static Response get(String url, Validators validators, long offset) throws IOException {
+        URL target = new URL(url);
+        for (int attempt = 0; ; attempt++) {
+            if (attempt > 0) {
+                RETRIES.inc();
+                backoff(attempt);
+            }
+            Response response;
+            try {
+                response = open(target, validators, offset);
+            } catch (IOException e) {
+                if (attempt >= Config.UPSTREAM_RETRIES || Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                Log.warn("Retrying " + url, e);
+                continue;
+            }
+            if (!isRetryable(response.getStatus()) || attempt >= Config.UPSTREAM_RETRIES) {
+                return response;
+            }
+            Log.warn("Retrying " + url + ": HTTP " + response.getStatus());
+            response.close();
+        }
+    }
+
+    private static Response open(URL url, Validators validators, long offset) throws IOException {
+        Semaphore permits = HOSTS.computeIfAbsent(url.getHost(), host -> new Semaphore(Config.UPSTREAM_CONNECTIONS));
+        try {
+            if (!permits.tryAcquire(Config.UPSTREAM_CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                LIMITED.inc();
+                throw new IOException("Too many concurrent requests to " + url.getHost());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a connection to " + url.getHost());
+        }
+
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) url.openConnection();
+            connection.setUseCaches(false);
+            connection.setConnectTimeout((int) Config.UPSTREAM_CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout((int) Config.UPSTREAM_READ_TIMEOUT_MS);
+            if (validators.etag != null) {
+                connection.setRequestProperty("If-None-Match", validators.etag);
+            }
+            if (validators.lastModified != null) {
+                connection.setRequestProperty("If-Modified-Since", validators.lastModified);
+            }
+            if (offset > 0) {
+                connection.setRequestProperty("Range", "bytes=" + offset + "-");
+            }
+
+            long start = System.nanoTime();
+            connection.connect();
+            CONNECT.recordSince(start);
+            int status = connection.getResponseCode();
+            FIRST_BYTE.recordSince(start);
+
+            Validators returned = validators;
+            if (status == HttpURLConnection.HTTP_OK) {
+                returned = new Validators(connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
+            }
+            return new Response(connection, status, returned, permits);
+        } catch (IOException | RuntimeException e) {
+            if (connection != null) {
+                connection.disconnect();
+            }
+            permits.release();
+            throw e;
+        }
+    }
+
+    private static boolean isRetryable(int status) {
+        return status == HttpURLConnection.HTTP_BAD_GATEWAY || status == HttpURLConnection.HTTP_UNAVAILABLE
+                || status == HttpURLConnection.HTTP_GATEWAY_TIMEOUT;
+    }
+
+    /**
+     * Exponential backoff with jitter, so that retries of concurrent requests don't arrive all at once
+     */
+    private static void backoff(int attempt) throws IOException {
+        long delay = Config.UPSTREAM_BACKOFF_MS << (attempt - 1);
+        try {
+            Thread.sleep(delay + ThreadLocalRandom.current().nextLong(delay + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.wildfly.cdn;
+
+import com.github.zafarkhaja.semver.Version;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The released versions as an immutable array, sorted oldest first.
+ * <p>
+ * Built once per metadata refresh. Range queries and the newest version of a major or minor line
+ * are answered by binary search over the sorted versions, without copying or sorting anything per request.
+ *
+ * @since 18/10/26
+ */
+public final class VersionIndex {
+
+    private final Version[] versions;
+    private final VersionedResource[] resources;
+
+    public VersionIndex(Collection<VersionedResource> unsorted) {
+        resources = unsorted.toArray(new VersionedResource[0]);
+        // VersionedResource sorts newest first
+        Arrays.sort(resources, Collections.reverseOrder());
+        versions = new Version[resources.length];
+        for (int i = 0; i < resources.length; i++) {
+            versions[i] = resources[i].getVersion();
+        }
+    }
+
+    public int size() {
+        return resources.length;
+    }
+
+    /**
+     * @return the newest version, or null if there are none
+     */
+    public VersionedResource getLatest() {
+        return resources.length > 0 ? resources[resources.length - 1] : null;
+    }
+
+    /**
+     * @return the newest version with the given major and, unless it's negative, minor version, or null if there is none
+     */
+    public VersionedResource getLatest(int major, int minor) {
+        Version next = minor < 0 ? Version.forIntegers(major + 1) : Version.forIntegers(major, minor + 1);
+        for (int i = lowerBound(next) - 1; i >= 0; i--) {
+            Version version = versions[i];
+            if (version.getMajorVersion() < major || (minor >= 0 && version.getMinorVersion() < minor)) {
+                break;
+            }
+            if (version.getMajorVersion() == major && (minor < 0 || version.getMinorVersion() == minor)) {
+                return resources[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param since the oldest version to include, null for no lower bound
+     * @param until the newest version to include, null for no upper bound
+     * @return the versions in the range, oldest first
+     */
+    public List<VersionedResource> range(Version since, Version until) {
+        int from = since != null ? lowerBound(since) : 0;
+        int to = until != null ? upperBound(until) : resources.length;
+        return from < to ? Collections.unmodifiableList(Arrays.asList(resources).subList(from, to)) : Collections.emptyList();
+    }
+
+    /**
+     * @return all versions, newest first
+     */
+    public List<VersionedResource> newestFirst() {
+        return new AbstractList<VersionedResource>() {
+            @Override
+            public VersionedResource get(int index) {
+                return resources[resources.length - 1 - index];
+            }
+
+            @Override
+            public int size() {
+                return resources.length;
+            }
+        };
+    }
+
+    /**
+     * Parses a version given as a query parameter, i.e. {@code 2}, {@code 2.6} or {@code 2.6.5.Final}.
+     * Missing minor and patch versions are zero.
+     *
+     * @throws IllegalArgumentException if the value doesn't start with a number
+     */
+    public static Version parseBound(String value) {
+        int[] numbers = new int[3];
+        parseNumbers(value, numbers);
+        return Version.forIntegers(numbers[0], numbers[1], numbers[2]);
+    }
+
+    /**
+     * Parses the upper bound of a range given as a query parameter. A partial version covers its whole line,
+     * i.e. {@code 2.8} includes every 2.8.x release and {@code 2} every 2.x release.
+     *
+     * @throws IllegalArgumentException if the value doesn't start with a number
+     */
+    public static Version parseUntil(String value) {
+        int[] numbers = new int[3];
+        int given = parseNumbers(value, numbers);
+        // newer than any release of the line, but older than the pre-releases of the next one
+        return Version.forIntegers(numbers[0],
+                given > 1 ? numbers[1] : Integer.MAX_VALUE,
+                given > 2 ? numbers[2] : Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return how many of the major, minor and patch versions are given
+     */
+    private static int parseNumbers(String value, int[] numbers) {
+        String[] parts = value.split("\\.", 4);
+        for (int i = 0; i < Math.min(parts.length, 3); i++) {
+            try {
+                numbers[i] = Integer.parseInt(parts[i]);
+            } catch (NumberFormatException e) {
+                if (i == 0) {
+                    throw new IllegalArgumentException("Not a version: " + value);
+                }
+                return i;
+            }
+        }
+        return Math.min(parts.length, 3);
+    }
+
+    /**
+     * @return the index of the first version not older than the given one
+     */
+    private int lowerBound(Version version) {
+        int low = 0;
+        int high = versions.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (Versions.compare(versions[middle], version) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the index of the first version newer than the given one
+     */
+    private int upperBound(Version version) {
+        int low = 0;
+        int high = versions.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (Versions.compare(versions[middle], version) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -39,7 +39,7 @@ class VersionedResource implements Comparable<VersionedResource> {
 
     @Override
     public int compareTo(VersionedResource o) {
-        return o.version.compareTo(version);
+        return Versions.compare(o.version, version);
     }
 
     public void setLastModified(Date modified) {
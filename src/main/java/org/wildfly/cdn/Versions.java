@@ -2,42 +2,300 @@ package org.wildfly.cdn;
 
 import com.github.zafarkhaja.semver.Version;
 
-import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
+ * Parses Maven style versions, i.e. {@code 2.6.1.Final}, {@code 2.5.3-Beta1} or {@code 2.4.0-SNAPSHOT},
+ * into semantic versions.
+ * <p>
+ * Final and GA releases become plain versions, other qualifiers (Alpha, Beta, CR, SNAPSHOT, ...) become
+ * pre-releases, which sort before the release. Qualifier numbers are separate identifiers, so that
+ * Beta10 sorts after Beta2. The same names are parsed on every metadata refresh, so results are memoized.
+ *
  * @author Heiko Braun
  * @since 25/02/15
  */
 public class Versions {
 
+    /**
+     * Upper bound for the number of memoized versions, beyond it versions are parsed on every call
+     */
+    private static final int MAX_CACHED = 4096;
+
     private static final int INDEX_NOT_FOUND = -1;
 
+    private static final ConcurrentHashMap<String, Version> CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * Scratch space for the identifiers of qualified versions
+     */
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(64));
+
+    private static final DateTimeFormatter NEXUS_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    /**
+     * @return the version, or null if the string isn't a version
+     */
     public static Version parseVersion(String versionString) {
-        Version version = null;
+        Version version = CACHE.get(versionString);
+        if (version == null) {
+            version = parse(versionString);
+            if (version != null && CACHE.size() < MAX_CACHED) {
+                CACHE.putIfAbsent(versionString, version);
+            }
+        }
+        return version;
+    }
+
+    /**
+     * Parses a version in one pass over its characters, without memoizing it. Nothing is allocated before the
+     * version itself: plain versions are built from the numbers, the identifiers of qualified ones are assembled
+     * in a buffer of the calling thread.
+     *
+     * @return the version, or null if the string doesn't start with a number
+     */
+    static Version parse(String versionString) {
+        int length = versionString.length();
+        int major = 0;
+        int minor = 0;
+        int patch = 0;
+        int position = 0;
+        int component = 0;
+
+        // up to three numeric components separated by dots, missing ones are zero
+        while (component < 3) {
+            int start = position;
+            int value = 0;
+            while (position < length && isDigit(versionString.charAt(position))) {
+                if (position - start == 9) {
+                    return null; // would overflow
+                }
+                value = value * 10 + (versionString.charAt(position) - '0');
+                position++;
+            }
+            if (position == start) {
+                // only the major version is read without looking ahead
+                return null;
+            }
+            if (component == 0) {
+                major = value;
+            } else if (component == 1) {
+                minor = value;
+            } else {
+                patch = value;
+            }
+            component++;
+            if (position < length && versionString.charAt(position) == '.'
+                    && position + 1 < length && isDigit(versionString.charAt(position + 1)) && component < 3) {
+                position++;
+            } else {
+                break;
+            }
+        }
+
+        if (position < length && (versionString.charAt(position) == '.' || versionString.charAt(position) == '-')) {
+            position++;
+        }
+        Version version = Version.forIntegers(major, minor, patch);
+        if (position >= length) {
+            return version;
+        }
+        StringBuilder identifiers = BUFFER.get();
+        identifiers.setLength(0);
+        boolean release = qualify(versionString, position, identifiers);
+        if (identifiers.length() == 0) {
+            return version;
+        }
         try {
-            int defaultIndex = Versions.ordinalIndexOf(versionString, ".", 3);
-            if (INDEX_NOT_FOUND == defaultIndex)
-                defaultIndex = versionString.length();
+            return release ? version.setBuildMetadata(identifiers.toString()) : version.setPreReleaseVersion(identifiers.toString());
+        } catch (RuntimeException e) {
+            // a qualifier that can't be expressed in semver doesn't make the version unusable
+            return version;
+        }
+    }
 
-            version = Version.valueOf(versionString.substring(0, defaultIndex));
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.out.println(versionString);
+    /**
+     * Appends the identifiers of the qualifier starting at {@code start}: Final and GA are releases, with anything
+     * following them as build metadata. Any other qualifier is a pre-release.
+     *
+     * @return true if the identifiers are build metadata of a release, false if they are a pre-release
+     */
+    private static boolean qualify(String versionString, int start, StringBuilder identifiers) {
+        int end = start;
+        while (end < versionString.length() && isAsciiLetter(versionString.charAt(end))) {
+            end++;
         }
-        return version;
+
+        // a fourth number (2.5.3.1) is build metadata as well, it doesn't take part in the order
+        boolean release = end == start || isName(versionString, start, end, "Final")
+                || isName(versionString, start, end, "GA") || isName(versionString, start, end, "RELEASE");
+        if (!release) {
+            appendCanonical(versionString, start, end, identifiers);
+        }
+        appendIdentifiers(versionString, end, identifiers);
+        return release;
+    }
+
+    /**
+     * Appends the remainder of a qualifier as dot separated identifiers, splitting numbers from letters
+     * and dropping characters that aren't allowed, i.e. {@code 1-redhat-02} becomes {@code 1.redhat.2}
+     */
+    private static void appendIdentifiers(String versionString, int start, StringBuilder identifiers) {
+        int length = versionString.length();
+        int previous = 0; // 0 separator, 1 digit, 2 letter
+        for (int i = start; i < length; i++) {
+            char c = versionString.charAt(i);
+            int kind = isDigit(c) ? 1 : isAsciiLetter(c) ? 2 : 0;
+            if (kind == 0) {
+                previous = 0;
+                continue;
+            }
+            if (kind == 1 && previous != 1 && c == '0' && i + 1 < length && isDigit(versionString.charAt(i + 1))) {
+                // numeric identifiers must not have leading zeros
+                continue;
+            }
+            if (identifiers.length() > 0 && kind != previous) {
+                identifiers.append('.');
+            }
+            identifiers.append(c);
+            previous = kind;
+        }
+    }
+
+    /**
+     * Appends the usual spelling of the known qualifiers, whose order as strings matches their order as releases
+     */
+    private static void appendCanonical(String versionString, int start, int end, StringBuilder identifiers) {
+        if (isName(versionString, start, end, "alpha")) {
+            identifiers.append("Alpha");
+        } else if (isName(versionString, start, end, "beta")) {
+            identifiers.append("Beta");
+        } else if (isName(versionString, start, end, "cr") || isName(versionString, start, end, "rc")) {
+            identifiers.append("CR");
+        } else if (isName(versionString, start, end, "snapshot")) {
+            identifiers.append("SNAPSHOT");
+        } else {
+            identifiers.append(versionString, start, end);
+        }
+    }
+
+    private static boolean isName(String versionString, int start, int end, String name) {
+        return end - start == name.length() && versionString.regionMatches(true, start, name, 0, name.length());
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    /**
+     * Orders versions like {@link Version#compareTo(Version)}. java-semver tells numeric from alphanumeric identifiers
+     * by catching a NumberFormatException, so comparing two pre-releases of the same version, i.e. when sorting
+     * a listing, throws for every qualifier. This compares the identifiers without exceptions.
+     */
+    public static int compare(Version version, Version other) {
+        int result = Integer.compare(version.getMajorVersion(), other.getMajorVersion());
+        if (result == 0) {
+            result = Integer.compare(version.getMinorVersion(), other.getMinorVersion());
+        }
+        if (result == 0) {
+            result = Integer.compare(version.getPatchVersion(), other.getPatchVersion());
+        }
+        if (result != 0) {
+            return result;
+        }
+        String preRelease = version.getPreReleaseVersion();
+        String otherPreRelease = other.getPreReleaseVersion();
+        if (preRelease.isEmpty() || otherPreRelease.isEmpty()) {
+            // a pre-release sorts before its release
+            return Boolean.compare(preRelease.isEmpty(), otherPreRelease.isEmpty());
+        }
+        return comparePreRelease(preRelease, otherPreRelease);
+    }
+
+    private static int comparePreRelease(String preRelease, String other) {
+        int start = 0;
+        int otherStart = 0;
+        while (start < preRelease.length() && otherStart < other.length()) {
+            int end = identifierEnd(preRelease, start);
+            int otherEnd = identifierEnd(other, otherStart);
+            int result = compareIdentifier(preRelease, start, end, other, otherStart, otherEnd);
+            if (result != 0) {
+                return result;
+            }
+            start = end + 1;
+            otherStart = otherEnd + 1;
+        }
+        // with a common prefix, more identifiers sort later
+        return Boolean.compare(start < preRelease.length(), otherStart < other.length());
+    }
+
+    private static int identifierEnd(String identifiers, int start) {
+        int end = identifiers.indexOf('.', start);
+        return end == INDEX_NOT_FOUND ? identifiers.length() : end;
+    }
+
+    /**
+     * Numbers that fit an int compare by value, anything else as strings, like java-semver does
+     */
+    private static int compareIdentifier(String a, int start, int end, String b, int otherStart, int otherEnd) {
+        if (isInt(a, start, end) && isInt(b, otherStart, otherEnd) && end - start != otherEnd - otherStart) {
+            // numeric identifiers have no leading zeros, so the longer number is the larger one,
+            // numbers of the same length compare like strings
+            return (end - start) - (otherEnd - otherStart);
+        }
+        int common = Math.min(end - start, otherEnd - otherStart);
+        for (int i = 0; i < common; i++) {
+            char c = a.charAt(start + i);
+            char otherChar = b.charAt(otherStart + i);
+            if (c != otherChar) {
+                return c - otherChar;
+            }
+        }
+        return (end - start) - (otherEnd - otherStart);
+    }
+
+    private static boolean isInt(String identifiers, int start, int end) {
+        if (start == end) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (!isDigit(identifiers.charAt(i))) {
+                return false;
+            }
+        }
+        // beyond 9 digits, only the values below 2^31 are ints
+        int length = end - start;
+        return length < 10 || (length == 10 && identifiers.substring(start, end).compareTo("2147483647") <= 0);
     }
 
-    public static Date parseDate(String dateString) throws Exception {
-        SimpleDateFormat parser =new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        Date date = parser.parse(dateString);
-        return date;
+    /**
+     * Parses the timestamps of Nexus listings, i.e. {@code 2014-08-20 08:44:13.0 UTC}
+     */
+    public static Date parseDate(String dateString) {
+        LocalDateTime dateTime = LocalDateTime.parse(dateString.substring(0, Math.min(dateString.length(), 19)), NEXUS_DATE);
+        return Date.from(dateTime.toInstant(ZoneOffset.UTC));
     }
 
+    /**
+     * @deprecated no longer used to parse versions, which are read in one pass by {@link #parseVersion(String)}
+     */
+    @Deprecated
     public static int ordinalIndexOf(final CharSequence str, final CharSequence searchStr, final int ordinal) {
         return ordinalIndexOf(str, searchStr, ordinal, false);
     }
 
+    /**
+     * @deprecated no longer used to parse versions, which are read in one pass by {@link #parseVersion(String)}
+     */
+    @Deprecated
     public static int ordinalIndexOf(final CharSequence str, final CharSequence searchStr, final int ordinal, final boolean lastIndex) {
         if (str == null || searchStr == null || ordinal <= 0) {
             return INDEX_NOT_FOUND;
@@ -61,6 +319,10 @@ public class Versions {
         return index;
     }
 
+    /**
+     * @deprecated use {@link String#lastIndexOf(String, int)}
+     */
+    @Deprecated
     public static int lastIndexOf(final CharSequence cs, final CharSequence searchChar, final int start) {
         return cs.toString().lastIndexOf(searchChar.toString(), start);
         //        if (cs instanceof String && searchChar instanceof String) {
@@ -74,6 +336,10 @@ public class Versions {
         //        }
     }
 
+    /**
+     * @deprecated use {@link String#indexOf(String, int)}
+     */
+    @Deprecated
     public static int indexOf(final CharSequence cs, final CharSequence searchChar, final int start) {
         return cs.toString().indexOf(searchChar.toString(), start);
         //        if (cs instanceof String && searchChar instanceof String) {
@@ -1,122 +1,170 @@
 package org.wildfly.cdn;
 
 import com.github.zafarkhaja.semver.Version;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
 import java.io.InputStream;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
-import java.util.LinkedList;
-import java.util.List;
 
 /**
+ * Streaming parser for the Nexus content listings.
+ * Items are handed out while the document is read, nothing but the current item is kept in memory.
+ *
  * @author Heiko Braun
  * @since 25/02/15
  */
 public class Xml {
 
-    private static Document parseXML(InputStream stream)
-            throws Exception
-    {
-        DocumentBuilderFactory objDocumentBuilderFactory = null;
-        DocumentBuilder objDocumentBuilder = null;
-        Document doc = null;
-        try
-        {
-            objDocumentBuilderFactory = DocumentBuilderFactory.newInstance();
-            objDocumentBuilder = objDocumentBuilderFactory.newDocumentBuilder();
-
-            doc = objDocumentBuilder.parse(stream);
-        }
-        catch(Exception ex)
-        {
-            throw ex;
-        }
+    private static final XMLInputFactory FACTORY = createFactory();
 
-        return doc;
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
     }
 
     public interface HandleVersion {
         void handle(VersionedResource resource);
     }
 
+    /**
+     * The fields of a {@code <content-item>} we're interested in. A single instance is reused for all items.
+     */
+    private static final class ContentItem {
+        String text;
+        String leaf;
+        String resourceURI;
+        String lastModified;
+
+        void reset() {
+            text = null;
+            leaf = null;
+            resourceURI = null;
+            lastModified = null;
+        }
+
+        boolean isLeaf() {
+            return Boolean.valueOf(leaf);
+        }
+    }
+
+    private interface HandleContentItem {
+        void handle(ContentItem item) throws Exception;
+    }
+
+    private static void parseContentItems(InputStream in, HandleContentItem handler) throws Exception {
+        XMLStreamReader reader = FACTORY.createXMLStreamReader(in);
+        try {
+            ContentItem item = new ContentItem();
+            int depth = 0;
+            int itemDepth = -1;
+            boolean inData = false;
+
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    String name = reader.getLocalName();
+                    if (itemDepth == -1) {
+                        if ("data".equals(name)) {
+                            inData = true;
+                        } else if (inData && "content-item".equals(name)) {
+                            itemDepth = depth;
+                            item.reset();
+                        }
+                    } else if (depth == itemDepth + 1) {
+                        switch (name) {
+                            case "text":
+                                item.text = reader.getElementText();
+                                depth--;
+                                break;
+                            case "leaf":
+                                item.leaf = reader.getElementText();
+                                depth--;
+                                break;
+                            case "resourceURI":
+                                item.resourceURI = reader.getElementText();
+                                depth--;
+                                break;
+                            case "lastModified":
+                                item.lastModified = reader.getElementText();
+                                depth--;
+                                break;
+                            default:
+                                break;
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (depth == itemDepth) {
+                        itemDepth = -1;
+                        handler.handle(item);
+                    } else if (itemDepth == -1 && "data".equals(reader.getLocalName())) {
+                        inData = false;
+                    }
+                    depth--;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
     public static void parseMetadata(InputStream in, HandleVersion handler) {
 
         try {
-            Document doc = parseXML(in);
-            NodeList data = doc.getElementsByTagName("data");
-
-            for (int i = 0; i < data.getLength(); i++) {
-                Element dataEl = (Element) data.item(i);
-                List<Element> contentItems = DomUtils.getChildElementsByTagName(dataEl, "content-item");
-                for (Element contentItem : contentItems) {
-
-                    Element leaf = DomUtils.getChildElementByTagName(contentItem, "leaf");
-                    if (Boolean.valueOf(DomUtils.getTextValue(leaf)) == false) {
-                        Element text = DomUtils.getChildElementByTagName(contentItem, "text");
-                        String resourceName = DomUtils.getTextValue(text);
-                        Version version = Versions.parseVersion(resourceName);
+            parseContentItems(in, item -> {
+                if (!item.isLeaf()) {
+                    // the same names are parsed again on every refresh
+                    String resourceName = item.text.intern();
+                    Version version = Versions.parseVersion(resourceName);
+                    if (version != null) {
                         handler.handle(new VersionedResource(version, resourceName));
+                    } else {
+                        Log.warn("Skipping " + resourceName + ", not a version");
                     }
                 }
-
-            }
+            });
         } catch (Exception e) {
             throw new RuntimeException(e.getMessage());
         }
     }
 
+    /**
+     * Finds the most recent {@code -resources.jar} in a snapshot listing in a single pass.
+     */
     public static VersionedResource parseSnapshotMetadata(InputStream in, final String versionString) {
 
         try {
-            Document doc = parseXML(in);
-            NodeList data = doc.getElementsByTagName("data");
-
-            List<VersionedResource> snapshots = new LinkedList<>();
-
-            for (int i = 0; i < data.getLength(); i++) {
-                Element dataEl = (Element) data.item(i);
-                List<Element> contentItems = DomUtils.getChildElementsByTagName(dataEl, "content-item");
-                for (Element contentItem : contentItems) {
-
-                    Element leaf = DomUtils.getChildElementByTagName(contentItem, "leaf");
-                    if (Boolean.valueOf(DomUtils.getTextValue(leaf)) == true) {
-                        Element text = DomUtils.getChildElementByTagName(contentItem, "text");
-                        String resourceName = DomUtils.getTextValue(text);
-
-                        if(resourceName.endsWith("-resources.jar"))
-                        {
-                            Element resourceURI = DomUtils.getChildElementByTagName(contentItem, "resourceURI");
-                            String artefactUrl = DomUtils.getTextValue(resourceURI);
-
-
-                            Element lastModified = DomUtils.getChildElementByTagName(contentItem, "lastModified");
-                            Date modified = Versions.parseDate(DomUtils.getTextValue(lastModified));
-                            Version version = Versions.parseVersion(versionString);
-                            VersionedResource resource = new VersionedResource(version, resourceName, artefactUrl);
-                            resource.setLastModified(modified);
-                            snapshots.add(resource);
-                        }
-
-                    }
-                }
+            Version version = Versions.parseVersion(versionString);
+            if (version == null) {
+                throw new IllegalArgumentException(versionString + " is not a version");
             }
-
-            System.out.println("Found "+snapshots.size()+" snapshots for "+versionString);
-
-            Collections.sort(snapshots, new Comparator<VersionedResource>() {
-                @Override
-                public int compare(VersionedResource o1, VersionedResource o2) {
-                    return o2.getModified().compareTo(o1.getModified());
+            VersionedResource[] newest = new VersionedResource[1];
+            int[] found = new int[1];
+
+            parseContentItems(in, item -> {
+                if (item.isLeaf() && item.text != null && item.text.endsWith("-resources.jar")) {
+                    found[0]++;
+                    Date modified = Versions.parseDate(item.lastModified);
+                    // on equal timestamps the first listed artefact wins
+                    if (newest[0] == null || modified.after(newest[0].getModified())) {
+                        VersionedResource resource = new VersionedResource(version, item.text, item.resourceURI);
+                        resource.setLastModified(modified);
+                        newest[0] = resource;
+                    }
                 }
             });
 
-            return snapshots.get(0);
+            Log.info("Found "+found[0]+" snapshots for "+versionString);
+
+            if (newest[0] == null) {
+                throw new IllegalStateException("No resources jar found for " + versionString);
+            }
+            return newest[0];
 
         } catch (Exception e) {
             throw new RuntimeException(e.getMessage());
@@ -0,0 +1,105 @@
+package org.wildfly.cdn;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @since 18/10/26
+ */
+public class AdmissionTest {
+
+    @Test
+    public void testExcessRequestsAreRejectedImmediately() throws Exception {
+        Admission admission = new Admission("test", 2, 0, 1000, 1000);
+        Admission.Permit first = admission.tryAcquire();
+        Admission.Permit second = admission.tryAcquire();
+        assertNotNull(first);
+        assertNotNull(second);
+
+        long start = System.nanoTime();
+        assertNull(admission.tryAcquire());
+        assertTrue("rejected without waiting", System.nanoTime() - start < 100_000_000);
+
+        first.release(false);
+        assertNotNull(admission.tryAcquire());
+    }
+
+    @Test
+    public void testQueuedRequestIsAdmittedWhenSlotFrees() throws Exception {
+        Admission admission = new Admission("test", 1, 1, 5000, 1000);
+        Admission.Permit running = admission.tryAcquire();
+
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        try {
+            CountDownLatch queued = new CountDownLatch(1);
+            Future<Admission.Permit> waiting = executor.submit(() -> {
+                queued.countDown();
+                return admission.tryAcquire();
+            });
+            queued.await();
+            // give the request time to enter the queue, which then is full
+            Thread.sleep(200);
+            assertNull(admission.tryAcquire());
+
+            running.release(false);
+            assertNotNull(waiting.get());
+            assertEquals(1, admission.getInFlight());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testQueueWaitIsBounded() throws Exception {
+        Admission admission = new Admission("test", 1, 4, 100, 1000);
+        assertNotNull(admission.tryAcquire());
+        assertNull(admission.tryAcquire());
+    }
+
+    @Test
+    public void testLimitDecreasesOncePerRoundAndRecovers() throws Exception {
+        Admission admission = new Admission("test", 8, 0, 0, 1000);
+        Admission.Permit[] permits = new Admission.Permit[8];
+        for (int i = 0; i < permits.length; i++) {
+            permits[i] = admission.tryAcquire();
+        }
+
+        // all of them time out, but they were admitted together and cut the limit once
+        for (Admission.Permit permit : permits) {
+            permit.release(true);
+        }
+        assertEquals(6, admission.getLimit());
+
+        // a timeout of a request admitted afterwards cuts it again
+        Admission.Permit late = admission.tryAcquire();
+        late.release(true);
+        assertEquals(4, admission.getLimit());
+
+        for (int i = 0; i < 100; i++) {
+            admission.tryAcquire().release(false);
+        }
+        assertEquals(8, admission.getLimit());
+        assertEquals(0, admission.getInFlight());
+    }
+
+    @Test
+    public void testSlowButHealthyDownloadsKeepTheLimit() throws Exception {
+        Admission admission = new Admission("test", 8, 0, 0, 0);
+        // large artefacts: every download takes half a minute, some a bit longer
+        for (int i = 0; i < 100; i++) {
+            admission.tryAcquire().release(TimeUnit.SECONDS.toNanos(i % 3 == 0 ? 45 : 30), false);
+        }
+        assertEquals(8, admission.getLimit());
+
+        // a download that is slow compared to its peers is overload
+        admission.tryAcquire().release(TimeUnit.SECONDS.toNanos(300), false);
+        assertEquals(6, admission.getLimit());
+    }
+}
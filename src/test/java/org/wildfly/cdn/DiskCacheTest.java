@@ -0,0 +1,153 @@
+package org.wildfly.cdn;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * @since 18/10/26
+ */
+public class DiskCacheTest {
+
+    private File wwwDir;
+    private File workDir;
+
+    @Before
+    public void setUp() throws Exception {
+        wwwDir = java.nio.file.Files.createTempDirectory("public_html").toFile();
+        workDir = java.nio.file.Files.createTempDirectory("work").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteRecursive(wwwDir);
+        Files.deleteRecursive(workDir);
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        List<String> evicted = new ArrayList<>();
+        DiskCache disk = new DiskCache(wwwDir, 2500);
+        disk.onEvict(evicted::add);
+        disk.open(workDir.getPath());
+
+        unpack("2.6.5.Final", 1000);
+        disk.add("2.6.5.Final");
+        unpack("2.7.0.Final", 1000);
+        disk.add("2.7.0.Final");
+        nextMillisecond();
+        disk.touch("2.6.5.Final");
+
+        unpack("2.8.0.Final", 1000);
+        disk.add("2.8.0.Final");
+
+        assertEquals(1, evicted.size());
+        assertEquals("2.7.0.Final", evicted.get(0));
+        assertFalse(new File(wwwDir, "2.7.0.Final").exists());
+        assertTrue(new File(wwwDir, "2.6.5.Final").exists());
+        assertEquals(2000, disk.getSize());
+    }
+
+    @Test
+    public void testVersionsInUseAreNotEvicted() throws Exception {
+        Set<String> downloading = ConcurrentHashMap.newKeySet();
+        List<String> evicted = new ArrayList<>();
+        DiskCache disk = new DiskCache(wwwDir, 2500);
+        disk.onEvict(evicted::add);
+        disk.protect(downloading::contains);
+        disk.open(workDir.getPath());
+
+        unpack("2.6.5.Final", 1000);
+        disk.add("2.6.5.Final");
+        unpack("2.7.0.Final", 1000);
+        disk.add("2.7.0.Final");
+
+        // the least recently used version is being published again
+        downloading.add("2.6.5.Final");
+        unpack("2.8.0.Final", 1000);
+        disk.add("2.8.0.Final");
+        assertEquals(Collections.singletonList("2.7.0.Final"), evicted);
+
+        downloading.clear();
+        unpack("2.9.0.Final", 1000);
+        disk.add("2.9.0.Final");
+        assertEquals(Arrays.asList("2.7.0.Final", "2.6.5.Final"), evicted);
+    }
+
+    @Test
+    public void testIndexSurvivesRestart() throws Exception {
+        DiskCache disk = new DiskCache(wwwDir, 0);
+        disk.open(workDir.getPath());
+        unpack("2.6.5.Final", 1000);
+        disk.add("2.6.5.Final");
+        unpack("2.7.0.Final", 1000);
+        disk.add("2.7.0.Final");
+        nextMillisecond();
+        disk.touch("2.6.5.Final");
+        disk.flush();
+
+        // leftovers of an interrupted run
+        unpack(".2.8.0.Final" + Files.STAGING_SUFFIX, 1000);
+        assertTrue(new File(wwwDir, "2.9.0.Final").mkdirs());
+        unpack(".2.5.0.Final" + Files.RETIRED_SUFFIX, 1000);
+        File jar = new File(workDir, "release-stream-2.8.0.Final-resources.jar");
+        assertTrue(jar.createNewFile());
+
+        // a lower budget evicts by the access order of the previous run
+        List<String> evicted = new ArrayList<>();
+        DiskCache restarted = new DiskCache(wwwDir, 1500);
+        restarted.onEvict(evicted::add);
+        restarted.open(workDir.getPath());
+
+        assertEquals(1, evicted.size());
+        assertEquals("2.7.0.Final", evicted.get(0));
+        assertEquals(1000, restarted.getSize());
+        assertEquals(Collections.singletonList("2.6.5.Final"), restarted.getVersions());
+        assertFalse(new File(wwwDir, ".2.8.0.Final" + Files.STAGING_SUFFIX).exists());
+        assertFalse(new File(wwwDir, "2.9.0.Final").exists());
+        assertFalse(new File(wwwDir, ".2.5.0.Final" + Files.RETIRED_SUFFIX).exists());
+        assertFalse(jar.exists());
+    }
+
+    @Test
+    public void testUpgradeKeepsUnpackedVersions() throws Exception {
+        // unpacked by a release that didn't write the marker
+        File dir = new File(wwwDir, "2.6.5.Final");
+        assertTrue(dir.mkdirs());
+        java.nio.file.Files.write(new File(dir, "index.html").toPath(), new byte[1000]);
+
+        DiskCache disk = new DiskCache(wwwDir, 0);
+        disk.open(workDir.getPath());
+
+        assertEquals(Collections.singletonList("2.6.5.Final"), disk.getVersions());
+        assertEquals(1000, disk.getSize());
+        assertTrue(Files.isComplete(dir));
+    }
+
+    /**
+     * Accesses are ordered by their time, ties fall back to the order the versions were added in
+     */
+    private static void nextMillisecond() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        while (System.currentTimeMillis() == now) {
+            Thread.sleep(1);
+        }
+    }
+
+    private void unpack(String version, int size) throws Exception {
+        File dir = new File(wwwDir, version);
+        assertTrue(dir.mkdirs());
+        java.nio.file.Files.write(new File(dir, "index.html").toPath(), new byte[size]);
+        java.nio.file.Files.createFile(new File(dir, Files.COMPLETE).toPath());
+    }
+}
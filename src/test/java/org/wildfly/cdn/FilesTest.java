@@ -0,0 +1,332 @@
+package org.wildfly.cdn;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * @since 18/10/26
+ */
+public class FilesTest {
+
+    private File workDir;
+
+    @Before
+    public void setUp() throws IOException {
+        workDir = java.nio.file.Files.createTempDirectory("files-test").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteRecursive(workDir);
+    }
+
+    @Test
+    public void testUnpackStream() throws Exception {
+        byte[] jar = jar("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n",
+                "app/app.nocache.js", "var hal = {};",
+                "index.html", "<html></html>");
+
+        File dest = new File(workDir, "2.6.5.Final");
+        Files.unpackStream(new ByteArrayInputStream(jar), dest.getAbsolutePath());
+
+        assertTrue(new File(dest, "META-INF/MANIFEST.MF").exists());
+        assertEquals("var hal = {};", read(new File(dest, "app/app.nocache.js")));
+        assertEquals("<html></html>", read(new File(dest, "index.html")));
+        assertFalse(Files.stagingDir(dest.getPath()).exists());
+        assertTrue(Files.isComplete(dest));
+
+        ETags etags = new ETags(workDir, version -> null);
+        String etag = etags.get("2.6.5.Final", "index.html");
+        assertEquals("\"" + ETags.hex(java.security.MessageDigest.getInstance("SHA-1").digest("<html></html>".getBytes())) + "\"", etag);
+        assertEquals(etag.replace("\"", "").length(), 40);
+        assertNotEquals(etag, etags.get("2.6.5.Final", "app/app.nocache.js"));
+    }
+
+    @Test
+    public void testLargeEntriesAreNotBuffered() throws Exception {
+        // above the size that is held in memory, the size isn't in the local header of a streamed jar
+        StringBuilder large = new StringBuilder();
+        while (large.length() < 9 * 1024 * 1024) {
+            large.append("var hal").append(large.length()).append(" = {};\n");
+        }
+        byte[] jar = jar("index.html", "<html></html>",
+                "app/app.cache.js", large.toString(),
+                "app/app.nocache.js", "var hal = {};");
+
+        File dest = new File(workDir, "2.6.5.Final");
+        Files.unpackStream(new ByteArrayInputStream(jar), dest.getAbsolutePath());
+
+        assertEquals(large.toString(), read(new File(dest, "app/app.cache.js")));
+        assertEquals("var hal = {};", read(new File(dest, "app/app.nocache.js")));
+        assertEquals("<html></html>", read(new File(dest, "index.html")));
+        ETags etags = new ETags(workDir, version -> null);
+        assertEquals("\"" + ETags.hex(java.security.MessageDigest.getInstance("SHA-1").digest(large.toString().getBytes(StandardCharsets.UTF_8))) + "\"",
+                etags.get("2.6.5.Final", "app/app.cache.js"));
+    }
+
+    @Test
+    public void testSnapshotTagsFollowTheResolvedArtefact() throws Exception {
+        String artefact = "console-2.7.0-20140901.101010-8-resources.jar";
+        ETags etags = new ETags(workDir, version -> new VersionedResource(Versions.parseVersion(version), artefact, artefact));
+        assertNull("not published yet", etags.get("2.7.0-SNAPSHOT", "index.html"));
+
+        // published, but the marker isn't there yet
+        File dest = new File(workDir, "2.7.0-SNAPSHOT");
+        Files.unpackStream(new ByteArrayInputStream(jar("index.html", "<html></html>")), dest.getAbsolutePath());
+
+        String prefix = ETags.hex(java.security.MessageDigest.getInstance("SHA-1").digest(artefact.getBytes(StandardCharsets.UTF_8))).substring(0, 8);
+        String etag = etags.get("2.7.0-SNAPSHOT", "index.html");
+        assertNotNull(etag);
+        assertTrue(etag, etag.startsWith("\"" + prefix + "-"));
+    }
+
+    @Test
+    public void testUnzipJarInParallel() throws Exception {
+        String[] entries = new String[200];
+        for (int i = 0; i < entries.length; i += 2) {
+            entries[i] = "app/deferredjs/" + i + ".cache.js";
+            entries[i + 1] = "var fragment" + i + " = {};";
+        }
+        File jar = new File(workDir, "release-stream-2.6.5.Final-resources.jar");
+        java.nio.file.Files.write(jar.toPath(), jar(entries));
+
+        // an earlier attempt that didn't complete
+        File dest = new File(workDir, "2.6.5.Final");
+        assertTrue(new File(dest, "app").mkdirs());
+        assertFalse(Files.isComplete(dest));
+
+        assertTrue(Files.unzipJar(dest.getAbsolutePath(), jar.getAbsolutePath()));
+        assertTrue(Files.isComplete(dest));
+        assertFalse(Files.stagingDir(dest.getPath()).exists());
+        assertFalse(new File(workDir, ".2.6.5.Final" + Files.RETIRED_SUFFIX).exists());
+        ETags etags = new ETags(workDir, version -> null);
+        for (int i = 0; i < entries.length; i += 2) {
+            assertEquals(entries[i + 1], read(new File(dest, entries[i])));
+            assertNotNull(etags.get("2.6.5.Final", entries[i]));
+        }
+    }
+
+    @Test
+    public void testUnpackStreamRejectsEntriesOutsideDestination() throws Exception {
+        byte[] jar = jar("index.html", "<html></html>", "../escaped.txt", "boom");
+
+        File dest = new File(workDir, "2.6.5.Final");
+        try {
+            Files.unpackStream(new ByteArrayInputStream(jar), dest.getAbsolutePath());
+            fail("Entry outside of the destination accepted");
+        } catch (IOException expected) {
+            // fine
+        }
+        assertFalse(dest.exists());
+        assertFalse(new File(workDir, "escaped.txt").exists());
+        assertFalse(Files.stagingDir(dest.getPath()).exists());
+    }
+
+    @Test
+    public void testTextFilesArePrecompressed() throws Exception {
+        StringBuilder script = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            script.append("var hal").append(i).append(" = {};\n");
+        }
+        byte[] jar = jar("app/app.nocache.js", script.toString(),
+                "app/small.css", "body {}",
+                "app/logo.png", script.toString());
+
+        File dest = new File(workDir, "2.6.5.Final");
+        Files.unpackStream(new ByteArrayInputStream(jar), dest.getAbsolutePath());
+
+        File gzip = new File(dest, "app/app.nocache.js.gz");
+        assertTrue(gzip.exists());
+        assertTrue(gzip.length() < new File(dest, "app/app.nocache.js").length());
+        try (InputStream in = new GZIPInputStream(new FileInputStream(gzip))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Files.pipe(in, out);
+            assertEquals(script.toString(), out.toString("UTF-8"));
+        }
+        assertFalse("Small file compressed", new File(dest, "app/small.css.gz").exists());
+        assertFalse("Binary file compressed", new File(dest, "app/logo.png.gz").exists());
+    }
+
+    @Test
+    public void testInterruptedDownloadIsResumed() throws Exception {
+        byte[] content = jar("index.html", "<html></html>", "app/app.nocache.js", "var hal = {};");
+        List<String> ranges = new CopyOnWriteArrayList<>();
+        HttpServer server = serve(content, ETags.hex(MessageDigest.getInstance("SHA-1").digest(content)), ranges);
+        try {
+            File target = new File(workDir, "release-stream-2.6.5.Final-resources.jar");
+            int cutOff = content.length / 2;
+            java.nio.file.Files.write(new File(workDir, target.getName() + Files.PART_SUFFIX).toPath(), Arrays.copyOf(content, cutOff));
+
+            assertTrue(Files.download(url(server), target, null));
+
+            assertArrayEquals(content, java.nio.file.Files.readAllBytes(target.toPath()));
+            assertEquals(Arrays.asList("bytes=" + cutOff + "-"), ranges);
+            assertFalse(new File(workDir, target.getName() + Files.PART_SUFFIX).exists());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testBrokenStreamIsResumed() throws Exception {
+        byte[] content = jar("index.html", "<html></html>", "app/app.nocache.js", "var hal = {};");
+        List<String> ranges = new CopyOnWriteArrayList<>();
+        int cutOff = content.length / 2;
+        HttpServer server = serve(content, ETags.hex(MessageDigest.getInstance("SHA-1").digest(content)), ranges, cutOff);
+        try {
+            File dest = new File(workDir, "2.6.5.Final");
+            assertTrue(Files.streamJar(url(server), dest.getAbsolutePath()).isPresent());
+
+            assertEquals(Arrays.asList("bytes=" + cutOff + "-"), ranges);
+            assertTrue(Files.isComplete(dest));
+            assertEquals("var hal = {};", new String(java.nio.file.Files.readAllBytes(
+                    new File(dest, "app/app.nocache.js").toPath()), StandardCharsets.UTF_8));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testUnavailableChecksumIsSkipped() throws Exception {
+        byte[] content = jar("index.html", "<html></html>");
+        HttpServer server = serve(content, null, new CopyOnWriteArrayList<>());
+        try {
+            File target = new File(workDir, "release-stream-2.6.5.Final-resources.jar");
+            assertTrue(Files.download(url(server), target, null));
+            assertArrayEquals(content, java.nio.file.Files.readAllBytes(target.toPath()));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testCorruptDownloadIsRejected() throws Exception {
+        byte[] content = jar("index.html", "<html></html>");
+        HttpServer server = serve(content, "0000000000000000000000000000000000000000", new CopyOnWriteArrayList<>());
+        try {
+            File target = new File(workDir, "release-stream-2.6.5.Final-resources.jar");
+            try {
+                Files.download(url(server), target, null);
+                fail("Download with a wrong checksum accepted");
+            } catch (IOException expected) {
+                // fine
+            }
+            assertFalse(target.exists());
+            assertFalse(new File(workDir, target.getName() + Files.PART_SUFFIX).exists());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testUnverifiedStreamIsNotPublished() throws Exception {
+        byte[] jar = jar("index.html", "<html></html>");
+
+        File dest = new File(workDir, "2.6.5.Final");
+        try {
+            Files.unpackStream(new ByteArrayInputStream(jar), dest.getAbsolutePath(), () -> {
+                throw new IOException("SHA-1 mismatch");
+            });
+            fail("Unverified jar published");
+        } catch (IOException expected) {
+            // fine
+        }
+        assertFalse(dest.exists());
+        assertFalse(Files.stagingDir(dest.getPath()).exists());
+    }
+
+    private static HttpServer serve(byte[] content, String sha1, List<String> ranges) throws IOException {
+        return serve(content, sha1, ranges, content.length);
+    }
+
+    /**
+     * Serves the content and its checksum like Nexus does, recording the requested ranges
+     *
+     * @param sha1 null for a checksum whose connection breaks off
+     * @param cutOff where the connection of a request for the whole content breaks off
+     */
+    private static HttpServer serve(byte[] content, String sha1, List<String> ranges, int cutOff) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/release-stream-2.6.5.Final-resources.jar", exchange -> {
+            byte[] body = content;
+            if (exchange.getRequestURI().getPath().endsWith(".sha1")) {
+                if (sha1 == null) {
+                    exchange.sendResponseHeaders(200, 40);
+                    exchange.close();
+                    return;
+                }
+                body = sha1.getBytes(StandardCharsets.US_ASCII);
+                exchange.sendResponseHeaders(200, body.length);
+            } else if (exchange.getRequestURI().getPath().endsWith(".jar") && cutOff < content.length
+                    && exchange.getRequestHeaders().getFirst("Range") == null) {
+                exchange.sendResponseHeaders(200, content.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(content, 0, cutOff);
+                out.flush();
+                exchange.close();
+                return;
+            } else if (exchange.getRequestURI().getPath().endsWith(".jar")) {
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                if (range != null) {
+                    ranges.add(range);
+                    int from = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+                    body = Arrays.copyOfRange(content, from, content.length);
+                    exchange.getResponseHeaders().add("Content-Range", "bytes " + from + "-" + (content.length - 1) + "/" + content.length);
+                    exchange.sendResponseHeaders(206, body.length);
+                } else {
+                    exchange.sendResponseHeaders(200, body.length);
+                }
+            } else {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private static String url(HttpServer server) {
+        return "http://localhost:" + server.getAddress().getPort() + "/release-stream-2.6.5.Final-resources.jar";
+    }
+
+    static byte[] jar(String... namesAndContents) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+            for (int i = 0; i < namesAndContents.length; i += 2) {
+                out.putNextEntry(new ZipEntry(namesAndContents[i]));
+                out.write(namesAndContents[i + 1].getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    static String read(File file) throws IOException {
+        return new String(java.nio.file.Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,110 @@
+package org.wildfly.cdn;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * @since 18/10/26
+ */
+public class JarIndexTest {
+
+    private static final String SCRIPT;
+
+    static {
+        StringBuilder script = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            script.append("var hal").append(i).append(" = {};\n");
+        }
+        SCRIPT = script.toString();
+    }
+
+    private File jar;
+
+    @Before
+    public void setUp() throws Exception {
+        jar = File.createTempFile("release-stream", "-resources.jar");
+        byte[] logo = "not really a png".getBytes(StandardCharsets.UTF_8);
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+            out.putNextEntry(new ZipEntry("app/"));
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("app/app.nocache.js"));
+            out.write(SCRIPT.getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+
+            ZipEntry stored = new ZipEntry("app/logo.png");
+            CRC32 crc = new CRC32();
+            crc.update(logo);
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(logo.length);
+            stored.setCrc(crc.getValue());
+            out.putNextEntry(stored);
+            out.write(logo);
+            out.closeEntry();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        assertTrue(jar.delete());
+    }
+
+    @Test
+    public void testIndex() throws Exception {
+        JarIndex index = JarIndex.open(jar);
+        assertEquals(2, index.size());
+        assertNull(index.get("app/"));
+        assertNull(index.get("index.html"));
+
+        JarIndex.Entry logo = index.get("app/logo.png");
+        assertFalse(logo.isDeflated());
+        assertEquals("not really a png", content(logo));
+
+        JarIndex.Entry script = index.get("app/app.nocache.js");
+        assertTrue(script.isDeflated());
+        assertEquals(SCRIPT.length(), script.getSize());
+        assertEquals(SCRIPT, content(script));
+        assertNotEquals(script.getETag(false), script.getETag(true));
+        assertEquals(script.getETag(false), JarIndex.open(jar).get("app/app.nocache.js").getETag(false));
+    }
+
+    @Test
+    public void testDeflatedEntryAsGzip() throws Exception {
+        JarIndex.Entry script = JarIndex.open(jar).get("app/app.nocache.js");
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        script.writeGzipTo(gzip);
+        assertEquals(script.getGzipSize(), gzip.size());
+        assertTrue(gzip.size() < SCRIPT.length());
+
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip.toByteArray()))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Files.pipe(in, out);
+            assertEquals(SCRIPT, out.toString("UTF-8"));
+        }
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void testNotAJar() throws Exception {
+        java.nio.file.Files.write(jar.toPath(), "<html></html>".getBytes(StandardCharsets.UTF_8));
+        JarIndex.open(jar);
+    }
+
+    private static String content(JarIndex.Entry entry) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entry.writeTo(out);
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,74 @@
+package org.wildfly.cdn;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @since 18/10/26
+ */
+public class LogTest {
+
+    @Test
+    public void testRecordsAreJsonLines() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Log log = new Log(16, new PrintStream(bytes, true, "UTF-8"));
+        log.access("/release/:version", "/release/2.6.5.Final", "2.6.5.Final", Log.HIT, 302, 1_500_000);
+        log.event("warn", "Failed to read \"manifest\"\n", new IOException("disk full"));
+        assertTrue(log.flush(5000));
+
+        String[] lines = new String(bytes.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0], lines[0].startsWith("{\"time\":\""));
+        assertTrue(lines[0], lines[0].endsWith(",\"type\":\"access\",\"route\":\"/release/:version\","
+                + "\"path\":\"/release/2.6.5.Final\",\"version\":\"2.6.5.Final\",\"cache\":\"hit\","
+                + "\"status\":302,\"duration_ms\":1.500}"));
+        assertTrue(lines[1], lines[1].endsWith(",\"type\":\"event\",\"level\":\"warn\","
+                + "\"message\":\"Failed to read \\\"manifest\\\"\\n\",\"error\":\"java.io.IOException: disk full\"}"));
+    }
+
+    @Test
+    public void testFullBufferDropsInsteadOfBlocking() throws Exception {
+        CountDownLatch unblock = new CountDownLatch(1);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream stalled = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                try {
+                    unblock.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                bytes.write(b, off, len);
+            }
+        };
+        Log log = new Log(4, new PrintStream(stalled, true, "UTF-8"));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            log.event("info", "record " + i, null);
+        }
+        assertTrue("never waits for the writer", System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertTrue(log.getDropped() >= 100 - 4 - 1);
+
+        unblock.countDown();
+        assertTrue(log.flush(5000));
+        // the batch written after the stall reports the drops
+        log.event("info", "after", null);
+        assertTrue(log.flush(5000));
+        assertTrue(new String(bytes.toByteArray(), StandardCharsets.UTF_8).contains("log records, the buffer was full"));
+    }
+}
@@ -0,0 +1,76 @@
+package org.wildfly.cdn;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @since 18/10/26
+ */
+public class MetadataStoreTest {
+
+    private File workDir;
+
+    @Before
+    public void setUp() throws Exception {
+        workDir = java.nio.file.Files.createTempDirectory("work").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteRecursive(workDir);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        List<VersionedResource> versions = new ArrayList<>();
+        try (InputStream in = MetadataStoreTest.class.getResourceAsStream("/maven-metadata.xml")) {
+            Xml.parseMetadata(in, versions::add);
+        }
+        Collections.sort(versions);
+        Metadata.Snapshot snapshot = new Metadata.Snapshot(versions, 1234567890L,
+                new Upstream.Validators("\"abc\"", null));
+
+        VersionedResource jar = new VersionedResource(Versions.parseVersion("2.4.0-SNAPSHOT"),
+                "jboss-as-console-2.4.0-20150101.120000-1-resources.jar", "http://nexus/jboss-as-console.jar");
+        jar.setLastModified(new Date(1420113600000L));
+        Snapshots.Resolution resolution = new Snapshots.Resolution(jar,
+                new Upstream.Validators(null, "Thu, 01 Jan 2015 12:00:00 GMT"), 1420113600000L);
+
+        MetadataStore store = new MetadataStore(workDir.getPath());
+        store.write(snapshot, Collections.singletonMap("2.4.0-SNAPSHOT", resolution));
+        MetadataStore.State state = store.read();
+
+        assertEquals(1234567890L, state.snapshot.getTimestamp());
+        assertEquals("\"abc\"", state.snapshot.getValidators().getEtag());
+        assertNull(state.snapshot.getValidators().getLastModified());
+        assertEquals(versions.size(), state.snapshot.getVersions().size());
+        for (int i = 0; i < versions.size(); i++) {
+            assertEquals(versions.get(i).getResourceName(), state.snapshot.getVersions().get(i).getResourceName());
+            assertEquals(versions.get(i).getVersion(), state.snapshot.getVersions().get(i).getVersion());
+        }
+
+        Map<String, Snapshots.Resolution> resolutions = state.resolutions;
+        VersionedResource restored = resolutions.get("2.4.0-SNAPSHOT").getResource();
+        assertEquals(jar.getResourceName(), restored.getResourceName());
+        assertEquals(jar.getArtefactUrl(), restored.getArtefactUrl());
+        assertEquals(jar.getModified(), restored.getModified());
+        assertEquals("Thu, 01 Jan 2015 12:00:00 GMT", resolutions.get("2.4.0-SNAPSHOT").getValidators().getLastModified());
+        assertEquals(1420113600000L, resolutions.get("2.4.0-SNAPSHOT").getResolvedAt());
+    }
+
+    @Test
+    public void testMissingFile() throws Exception {
+        assertNull(new MetadataStore(workDir.getPath()).read());
+    }
+}
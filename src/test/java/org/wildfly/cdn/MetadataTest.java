@@ -0,0 +1,72 @@
+package org.wildfly.cdn;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @since 18/10/26
+ */
+public class MetadataTest {
+
+    private Metadata.Snapshot snapshot;
+
+    @Before
+    public void setUp() throws Exception {
+        List<VersionedResource> versions = new ArrayList<>();
+        try (InputStream in = MetadataTest.class.getResourceAsStream("/maven-metadata.xml")) {
+            Xml.parseMetadata(in, versions::add);
+        }
+        // the fixture predates CORS support
+        for (String version : new String[]{"2.6.5.Final", "2.7.0.Final", "2.6.6.Final"}) {
+            versions.add(new VersionedResource(Versions.parseVersion(version), version));
+        }
+        Collections.sort(versions);
+        snapshot = new Metadata.Snapshot(versions, System.currentTimeMillis(), Upstream.Validators.NONE);
+    }
+
+    @Test
+    public void testRenderedReleases() {
+        Metadata.Rendered rendered = snapshot.getReleases("http://localhost:8080");
+        String[] lines = new String(rendered.getBody(), StandardCharsets.UTF_8).split("\n");
+
+        assertArrayEquals(new String[]{
+                "http://localhost:8080/release/2.6.5.Final",
+                "http://localhost:8080/release/2.6.6.Final",
+                "http://localhost:8080/release/2.7.0.Final"
+        }, lines);
+
+        assertSame(rendered, snapshot.getReleases("http://localhost:8080"));
+        Metadata.Rendered other = snapshot.getReleases("https://hal.example.com");
+        assertNotEquals(rendered.getETag(), other.getETag());
+    }
+
+    @Test
+    public void testRenderedRange() {
+        Metadata.Rendered rendered = snapshot.getReleases("http://localhost:8080",
+                VersionIndex.parseBound("2.6.6"), VersionIndex.parseBound("2.7"));
+        assertEquals("http://localhost:8080/release/2.6.6.Final\nhttp://localhost:8080/release/2.7.0.Final",
+                new String(rendered.getBody(), StandardCharsets.UTF_8));
+
+        // versions before CORS support are never listed
+        Metadata.Rendered old = snapshot.getReleases("http://localhost:8080", VersionIndex.parseBound("1"), VersionIndex.parseBound("2.6.5"));
+        assertEquals("http://localhost:8080/release/2.6.5.Final", new String(old.getBody(), StandardCharsets.UTF_8));
+
+        assertNotSame(rendered, snapshot.getReleases("http://localhost:8080"));
+        assertSame(rendered, snapshot.getReleases("http://localhost:8080", VersionIndex.parseBound("2.6.6"), VersionIndex.parseBound("2.7.0")));
+    }
+
+    @Test
+    public void testLatestOfLine() {
+        assertEquals("2.7.0.Final", snapshot.getLatestVersion());
+        assertEquals("2.6.6.Final", snapshot.getIndex().getLatest(2, 6).getResourceName());
+        assertEquals("1.5.7.Final", snapshot.getIndex().getLatest(1, 5).getResourceName());
+    }
+}
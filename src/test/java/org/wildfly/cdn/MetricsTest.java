@@ -0,0 +1,42 @@
+package org.wildfly.cdn;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @since 18/10/26
+ */
+public class MetricsTest {
+
+    @Test
+    public void testScrape() {
+        Metrics.Counter counter = Metrics.counter("test_requests_total", "Requests", "route", "/latest");
+        assertSame(counter, Metrics.counter("test_requests_total", "Requests", "route", "/latest"));
+        counter.inc();
+        counter.add(2);
+
+        Metrics.Histogram histogram = Metrics.histogram("test_duration_seconds", "Durations");
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+        histogram.record(TimeUnit.SECONDS.toNanos(2));
+        Metrics.gauge("test_size_bytes", "Size", () -> 42);
+
+        String scrape = Metrics.scrape();
+        assertTrue(scrape.contains("# TYPE test_requests_total counter\n"));
+        assertTrue(scrape.contains("test_requests_total{route=\"/latest\"} 3\n"));
+        assertTrue(scrape.contains("test_duration_seconds_bucket{le=\"0.0025\"} 0\n"));
+        assertTrue(scrape.contains("test_duration_seconds_bucket{le=\"0.005\"} 1\n"));
+        assertTrue(scrape.contains("test_duration_seconds_bucket{le=\"2.5\"} 2\n"));
+        assertTrue(scrape.contains("test_duration_seconds_bucket{le=\"+Inf\"} 2\n"));
+        assertTrue(scrape.contains("test_duration_seconds_count 2\n"));
+        assertTrue(scrape.contains("test_size_bytes 42\n"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTypeClash() {
+        Metrics.counter("test_clash", "Clash");
+        Metrics.histogram("test_clash", "Clash");
+    }
+}
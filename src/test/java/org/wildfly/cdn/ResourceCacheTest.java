@@ -0,0 +1,97 @@
+package org.wildfly.cdn;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * @since 18/10/26
+ */
+public class ResourceCacheTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = java.nio.file.Files.createTempDirectory("cache-test").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteRecursive(dir);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws Exception {
+        ResourceCache cache = new ResourceCache(20, 10, false);
+        cache.load("2.6.5.Final/a.js", file("a.js", 8));
+        cache.load("2.6.5.Final/b.js", file("b.js", 8));
+        assertNotNull(cache.get("2.6.5.Final/a.js"));
+
+        cache.load("2.6.5.Final/c.js", file("c.js", 8));
+        assertNull(cache.get("2.6.5.Final/b.js"));
+        assertNotNull(cache.get("2.6.5.Final/a.js"));
+        assertNotNull(cache.get("2.6.5.Final/c.js"));
+        assertEquals(16, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        assertNull("Oversized file cached", cache.load("2.6.5.Final/d.js", file("d.js", 11)));
+    }
+
+    @Test
+    public void testOffHeapContentAndInvalidation() throws Exception {
+        ResourceCache cache = new ResourceCache(1024, 1024, true);
+        File app = new File(dir, "2.7.0-SNAPSHOT/app");
+        app.mkdirs();
+        java.nio.file.Files.write(new File(app, "app.js").toPath(), "var hal;".getBytes());
+        java.nio.file.Files.write(new File(app, "logo.png").toPath(), new byte[]{1, 2, 3});
+
+        cache.warm(new File(dir, "2.7.0-SNAPSHOT"), "2.7.0-SNAPSHOT");
+        assertNull("Only hot files are warmed", cache.get("2.7.0-SNAPSHOT/app/logo.png"));
+        ResourceCache.Entry entry = cache.get("2.7.0-SNAPSHOT/app/app.js");
+        assertNotNull(entry);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entry.writeTo(out);
+        entry.writeTo(out);
+        assertEquals("var hal;var hal;", out.toString());
+
+        cache.invalidate("2.7.0-SNAPSHOT");
+        assertNull(cache.get("2.7.0-SNAPSHOT/app/app.js"));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testLoadStartedBeforeInvalidationIsNotCached() throws Exception {
+        ResourceCache cache = new ResourceCache(1024, 1024, false);
+        File stale = file("app.js", 8);
+
+        // the file was looked up before the snapshot was replaced, and is read afterwards
+        long generation = cache.generation("2.7.0-SNAPSHOT/app.js");
+        cache.invalidate("2.7.0-SNAPSHOT");
+        assertNotNull(cache.load("2.7.0-SNAPSHOT/app.js", stale, generation));
+        assertNull(cache.get("2.7.0-SNAPSHOT/app.js"));
+        assertEquals(0, cache.getSize());
+
+        // other versions and later loads are cached as usual
+        cache.load("2.6.5.Final/app.js", stale, generation);
+        cache.load("2.7.0-SNAPSHOT/app.js", stale);
+        assertNotNull(cache.get("2.6.5.Final/app.js"));
+        assertNotNull(cache.get("2.7.0-SNAPSHOT/app.js"));
+        assertEquals(16, cache.getSize());
+    }
+
+    private File file(String name, int size) throws IOException {
+        File file = new File(dir, name);
+        java.nio.file.Files.write(file.toPath(), new byte[size]);
+        return file;
+    }
+}
@@ -0,0 +1,153 @@
+package org.wildfly.cdn;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @since 18/10/26
+ */
+public class SingleFlightTest {
+
+    @Test
+    public void testConcurrentCallsShareOneExecution() throws Exception {
+        SingleFlight<Integer> flight = new SingleFlight<>("test", 4);
+        AtomicInteger executions = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Integer> first = executor.submit(() -> flight.execute("2.6.5.Final", () -> {
+                executions.incrementAndGet();
+                started.countDown();
+                release.await();
+                return 200;
+            }, 5, TimeUnit.SECONDS));
+
+            started.await();
+            assertTrue(flight.isInFlight("2.6.5.Final"));
+            Future<Integer> second = executor.submit(() -> flight.execute("2.6.5.Final", () -> {
+                executions.incrementAndGet();
+                return 500;
+            }, 5, TimeUnit.SECONDS));
+
+            // give the second caller time to join the running flight
+            Thread.sleep(200);
+            release.countDown();
+            assertEquals(200, (int) first.get());
+            assertEquals(200, (int) second.get());
+            assertEquals(1, executions.get());
+            assertFalse(flight.isInFlight("2.6.5.Final"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void testParallelismIsBounded() throws Exception {
+        SingleFlight<Integer> flight = new SingleFlight<>("test", 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> flight.execute("2.6.5.Final", () -> {
+                started.countDown();
+                release.await();
+                return 200;
+            }, 5, TimeUnit.SECONDS));
+
+            started.await();
+            flight.execute("2.7.0.Final", () -> 200, 100, TimeUnit.MILLISECONDS);
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testJoinerOfTimedOutLeaderTimesOut() throws Exception {
+        SingleFlight<Integer> flight = new SingleFlight<>("test", 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // holds the only permit
+            executor.submit(() -> flight.execute("2.6.5.Final", () -> {
+                started.countDown();
+                release.await();
+                return 200;
+            }, 5, TimeUnit.SECONDS));
+            started.await();
+
+            // waits for a permit in vain
+            Future<Integer> leader = executor.submit(() -> flight.execute("2.7.0.Final", () -> 200, 300, TimeUnit.MILLISECONDS));
+            while (!flight.isInFlight("2.7.0.Final")) {
+                Thread.sleep(10);
+            }
+            try {
+                flight.execute("2.7.0.Final", () -> 500, 5, TimeUnit.SECONDS);
+                fail("joined a flight that never ran");
+            } catch (TimeoutException e) {
+                // expected, rather than an ExecutionException
+            }
+            try {
+                leader.get();
+                fail("the leader got a permit");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof TimeoutException);
+            }
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testBackgroundTasksHaveTheirOwnPermits() throws Exception {
+        SingleFlight<Integer> flight = new SingleFlight<>("test", 1, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Integer> prefetch = executor.submit(() -> flight.executeInBackground("2.6.5.Final", () -> {
+                started.countDown();
+                release.await();
+                return 200;
+            }, 5, TimeUnit.SECONDS));
+            started.await();
+
+            // the permit of requests is still free, the one of background tasks isn't
+            assertEquals(Integer.valueOf(200), flight.execute("2.7.0.Final", () -> 200, 100, TimeUnit.MILLISECONDS));
+            try {
+                flight.executeInBackground("2.8.0.Final", () -> 200, 100, TimeUnit.MILLISECONDS);
+                fail("ran on the permit of the running background task");
+            } catch (TimeoutException e) {
+                // expected
+            }
+
+            // a request joins the background task
+            Future<Integer> joined = executor.submit(() -> flight.execute("2.6.5.Final", () -> 500, 5, TimeUnit.SECONDS));
+            // give the request time to join
+            Thread.sleep(200);
+            release.countDown();
+            assertEquals(Integer.valueOf(200), joined.get());
+            assertEquals(Integer.valueOf(200), prefetch.get());
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.wildfly.cdn;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @since 18/10/26
+ */
+public class SnapshotsTest {
+
+    private static final String ETAG = "\"listing-1\"";
+
+    private HttpServer server;
+    private AtomicInteger listings;
+    private AtomicInteger notModified;
+    private String repositoryUrl;
+
+    @Before
+    public void setUp() throws Exception {
+        ByteArrayOutputStream fixture = new ByteArrayOutputStream();
+        try (InputStream in = SnapshotsTest.class.getResourceAsStream("/snapshot-metadata.xml")) {
+            Files.pipe(in, fixture);
+        }
+        byte[] listing = fixture.toByteArray();
+
+        listings = new AtomicInteger();
+        notModified = new AtomicInteger();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/2.4.0-SNAPSHOT", exchange -> {
+            exchange.getResponseHeaders().add("ETag", ETAG);
+            if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModified.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                listings.incrementAndGet();
+                exchange.sendResponseHeaders(200, listing.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(listing);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+        repositoryUrl = "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testResolutionIsCached() throws Exception {
+        Snapshots snapshots = new Snapshots(repositoryUrl);
+
+        VersionedResource first = snapshots.resolve("2.4.0-SNAPSHOT");
+        VersionedResource second = snapshots.resolve("2.4.0-SNAPSHOT");
+
+        assertSame(first, second);
+        assertEquals("jboss-as-console-2.4.0-20140820.084413-6-resources.jar", second.getResourceName());
+        assertEquals(1, listings.get());
+        assertEquals(0, notModified.get());
+    }
+
+    @Test
+    public void testUnchangedListingIsNotDownloadedAgain() throws Exception {
+        Snapshots snapshots = new Snapshots(repositoryUrl);
+
+        VersionedResource first = snapshots.resolve("2.4.0-SNAPSHOT");
+        snapshots.poll();
+
+        assertSame(first, snapshots.resolve("2.4.0-SNAPSHOT"));
+        assertEquals(1, listings.get());
+        assertEquals(1, notModified.get());
+    }
+
+    @Test
+    public void testConcurrentMissesShareOneRequest() throws Exception {
+        Snapshots snapshots = new Snapshots(repositoryUrl);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<VersionedResource>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> snapshots.resolve("2.4.0-SNAPSHOT")));
+            }
+            for (Future<VersionedResource> result : results) {
+                assertNotNull(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(listings.get() < 8);
+    }
+
+    @Test(expected = java.io.FileNotFoundException.class)
+    public void testUnknownVersion() throws Exception {
+        new Snapshots(repositoryUrl).resolve("9.9.9-SNAPSHOT");
+    }
+}
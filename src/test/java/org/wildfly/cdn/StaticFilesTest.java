@@ -0,0 +1,50 @@
+package org.wildfly.cdn;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @since 18/10/26
+ */
+public class StaticFilesTest {
+
+    @Test
+    public void testRelativePath() {
+        assertEquals("2.6.5.Final/app/app.nocache.js", StaticFiles.relativePath("/2.6.5.Final/app/app.nocache.js"));
+        assertEquals("2.6.5.Final/some file.js", StaticFiles.relativePath("/2.6.5.Final/some%20file.js"));
+        assertNull(StaticFiles.relativePath("/2.6.5.Final/"));
+        assertNull(StaticFiles.relativePath("/2.6.5.Final/%2e%2e/secret"));
+        assertNull(StaticFiles.relativePath("/2.6.5.Final/app/.."));
+        assertNull(StaticFiles.relativePath("/2.6.5.Final/..%5csecret"));
+        assertEquals("2.6.5.Final/app/foo..bar.js", StaticFiles.relativePath("/2.6.5.Final/app/foo..bar.js"));
+        assertEquals("2.6.5.Final/app/..js", StaticFiles.relativePath("/2.6.5.Final/app/..js"));
+    }
+
+    @Test
+    public void testAcceptsGzip() {
+        assertTrue(StaticFiles.acceptsGzip("gzip, deflate, br"));
+        assertTrue(StaticFiles.acceptsGzip("deflate;q=1.0, GZIP;q=0.5"));
+        assertTrue(StaticFiles.acceptsGzip("*"));
+        assertFalse(StaticFiles.acceptsGzip(null));
+        assertFalse(StaticFiles.acceptsGzip("identity"));
+        assertFalse(StaticFiles.acceptsGzip("gzip;q=0"));
+        assertFalse(StaticFiles.acceptsGzip("gzip; q=0.0, deflate"));
+    }
+
+    @Test
+    public void testHiddenPaths() {
+        assertTrue(StaticFiles.isHidden("2.6.5.Final/.etags"));
+        assertTrue(StaticFiles.isHidden(Files.stagingDir("2.6.5.Final").getPath() + "/index.html"));
+        assertFalse(StaticFiles.isHidden("2.6.5.Final/app/app.nocache.js"));
+    }
+
+    @Test
+    public void testIfNoneMatch() {
+        assertTrue(ETags.matches("\"abc\"", "\"abc\""));
+        assertTrue(ETags.matches("\"xyz\", W/\"abc\"", "\"abc\""));
+        assertTrue(ETags.matches("*", "\"abc\""));
+        assertFalse(ETags.matches("\"abc-gz\"", "\"abc\""));
+        assertFalse(ETags.matches(null, "\"abc\""));
+    }
+}
@@ -0,0 +1,40 @@
+package org.wildfly.cdn;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @since 18/10/26
+ */
+public class ThrottleTest {
+
+    @Test
+    public void testReadsAtTheGivenRate() throws Exception {
+        // 64 KB at 256 KB/s take a quarter of a second
+        Throttle throttle = new Throttle(256 * 1024);
+        long elapsed = drain(throttle.wrap(new ByteArrayInputStream(new byte[64 * 1024])));
+        assertTrue("too fast: " + elapsed + " ms", elapsed >= 200);
+    }
+
+    @Test
+    public void testLiftedThrottleReadsAtFullSpeed() throws Exception {
+        Throttle throttle = new Throttle(1024);
+        InputStream in = throttle.wrap(new ByteArrayInputStream(new byte[64 * 1024]));
+        throttle.lift();
+        assertTrue(drain(in) < 1000);
+    }
+
+    private static long drain(InputStream in) throws Exception {
+        long start = System.nanoTime();
+        byte[] buffer = new byte[4096];
+        while (in.read(buffer) != -1) {
+            // discard
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,98 @@
+package org.wildfly.cdn;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @since 18/10/26
+ */
+public class UpstreamTest {
+
+    private static final byte[] BODY = "content".getBytes(StandardCharsets.UTF_8);
+
+    private HttpServer server;
+    private AtomicInteger requests;
+    private Set<Integer> ports;
+    private String baseUrl;
+
+    @Before
+    public void setUp() throws Exception {
+        requests = new AtomicInteger();
+        ports = ConcurrentHashMap.newKeySet();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/ok", exchange -> {
+            requests.incrementAndGet();
+            ports.add(exchange.getRemoteAddress().getPort());
+            exchange.sendResponseHeaders(200, BODY.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(BODY);
+            }
+        });
+        server.createContext("/flaky", exchange -> {
+            // unavailable for the first two requests
+            int status = requests.incrementAndGet() <= 2 ? 503 : 200;
+            exchange.sendResponseHeaders(status, BODY.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(BODY);
+            }
+        });
+        server.createContext("/missing", exchange -> {
+            requests.incrementAndGet();
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        server.start();
+        baseUrl = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testUnavailableIsRetried() throws Exception {
+        try (Upstream.Response response = Upstream.get(baseUrl + "/flaky")) {
+            assertEquals(200, response.getStatus());
+            assertEquals("content", read(response));
+        }
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    public void testNotFoundIsNotRetried() throws Exception {
+        try (Upstream.Response response = Upstream.get(baseUrl + "/missing")) {
+            assertEquals(404, response.getStatus());
+        }
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void testConnectionIsReused() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            try (Upstream.Response response = Upstream.get(baseUrl + "/ok")) {
+                assertEquals("content", read(response));
+            }
+        }
+        assertEquals(5, requests.get());
+        assertEquals(1, ports.size());
+    }
+
+    private static String read(Upstream.Response response) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Files.pipe(response.getBody(), out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,96 @@
+package org.wildfly.cdn;
+
+import com.github.zafarkhaja.semver.Version;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @since 18/10/26
+ */
+public class VersionIndexTest {
+
+    private VersionIndex index;
+
+    @Before
+    public void setUp() {
+        List<VersionedResource> versions = new ArrayList<>();
+        for (String version : new String[]{"2.7.0.Final", "1.5.4.Final", "2.6.5.Final", "3.0.1.Final", "2.6.6.Final", "2.7.1.Final", "3.0.0.Final"}) {
+            versions.add(new VersionedResource(Versions.parseVersion(version), version));
+        }
+        index = new VersionIndex(versions);
+    }
+
+    @Test
+    public void testOrder() {
+        assertEquals(7, index.size());
+        assertEquals("3.0.1.Final", index.getLatest().getResourceName());
+        assertEquals(Arrays.asList("3.0.1.Final", "3.0.0.Final", "2.7.1.Final", "2.7.0.Final", "2.6.6.Final", "2.6.5.Final", "1.5.4.Final"),
+                names(index.newestFirst()));
+    }
+
+    @Test
+    public void testRange() {
+        assertEquals(Arrays.asList("2.6.6.Final", "2.7.0.Final", "2.7.1.Final"),
+                names(index.range(Version.forIntegers(2, 6, 6), Version.forIntegers(2, 7, 1))));
+        assertEquals(Arrays.asList("3.0.0.Final", "3.0.1.Final"), names(index.range(Version.forIntegers(3), null)));
+        assertEquals(Arrays.asList("1.5.4.Final"), names(index.range(null, Version.forIntegers(2))));
+        assertTrue(index.range(Version.forIntegers(2, 8), Version.forIntegers(2, 9)).isEmpty());
+        assertTrue(index.range(Version.forIntegers(3), Version.forIntegers(2)).isEmpty());
+    }
+
+    @Test
+    public void testLatestOfLine() {
+        assertEquals("2.7.1.Final", index.getLatest(2, -1).getResourceName());
+        assertEquals("2.6.6.Final", index.getLatest(2, 6).getResourceName());
+        assertEquals("3.0.1.Final", index.getLatest(3, 0).getResourceName());
+        assertEquals("1.5.4.Final", index.getLatest(1, -1).getResourceName());
+        assertNull(index.getLatest(2, 8));
+        assertNull(index.getLatest(4, -1));
+        assertNull(index.getLatest(0, -1));
+    }
+
+    @Test
+    public void testParseBound() {
+        assertEquals(Version.forIntegers(2, 0, 0), VersionIndex.parseBound("2"));
+        assertEquals(Version.forIntegers(2, 6, 0), VersionIndex.parseBound("2.6"));
+        assertEquals(Version.forIntegers(2, 6, 5), VersionIndex.parseBound("2.6.5.Final"));
+        try {
+            VersionIndex.parseBound("latest");
+            fail("Accepted a bound that isn't a version");
+        } catch (IllegalArgumentException expected) {
+            // fine
+        }
+    }
+
+    @Test
+    public void testPartialUntilCoversItsLine() {
+        List<VersionedResource> versions = new ArrayList<>();
+        for (String version : new String[]{"2.7.1.Final", "2.8.0.Final", "2.8.2.Final", "2.9.0.Beta1", "2.9.0.Final", "3.0.0.Final"}) {
+            versions.add(new VersionedResource(Versions.parseVersion(version), version));
+        }
+        VersionIndex lines = new VersionIndex(versions);
+
+        assertEquals(Arrays.asList("2.8.0.Final", "2.8.2.Final"),
+                names(lines.range(VersionIndex.parseBound("2.8"), VersionIndex.parseUntil("2.8"))));
+        assertEquals(Arrays.asList("2.7.1.Final", "2.8.0.Final", "2.8.2.Final", "2.9.0.Beta1", "2.9.0.Final"),
+                names(lines.range(null, VersionIndex.parseUntil("2"))));
+        assertEquals(Arrays.asList("2.7.1.Final", "2.8.0.Final"),
+                names(lines.range(null, VersionIndex.parseUntil("2.8.1"))));
+        assertEquals(Arrays.asList("2.7.1.Final", "2.8.0.Final", "2.8.2.Final"),
+                names(lines.range(null, VersionIndex.parseUntil("2.8.Final"))));
+    }
+
+    private static List<String> names(List<VersionedResource> resources) {
+        List<String> names = new ArrayList<>();
+        for (VersionedResource resource : resources) {
+            names.add(resource.getResourceName());
+        }
+        return names;
+    }
+}
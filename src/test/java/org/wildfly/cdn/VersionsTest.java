@@ -0,0 +1,88 @@
+package org.wildfly.cdn;
+
+import com.github.zafarkhaja.semver.Version;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @since 18/10/26
+ */
+public class VersionsTest {
+
+    @Test
+    public void testReleases() {
+        assertEquals(Version.forIntegers(2, 6, 1), Versions.parse("2.6.1.Final"));
+        assertEquals(Version.forIntegers(2, 6, 1), Versions.parse("2.6.1.GA"));
+        assertEquals(Version.forIntegers(2, 5, 10), Versions.parse("2.5.10"));
+        assertEquals(Version.forIntegers(2, 5, 0), Versions.parse("2.5.Final"));
+        assertEquals(Version.forIntegers(3, 0, 0), Versions.parse("3"));
+    }
+
+    @Test
+    public void testQualifiers() {
+        assertEquals("Beta.1", Versions.parse("2.5.3-Beta1").getPreReleaseVersion());
+        assertEquals("Beta.1", Versions.parse("2.2.0.Beta1").getPreReleaseVersion());
+        assertEquals("Beta.1.redhat", Versions.parse("2.4.0.Beta1-redhat").getPreReleaseVersion());
+        assertEquals("CR.2", Versions.parse("2.6.0.cr2").getPreReleaseVersion());
+        assertEquals("SNAPSHOT", Versions.parse("2.4.0-SNAPSHOT").getPreReleaseVersion());
+        assertEquals("redhat.1", Versions.parse("2.6.5.Final-redhat-1").getBuildMetadata());
+        assertEquals("", Versions.parse("2.6.5.Final-redhat-1").getPreReleaseVersion());
+    }
+
+    @Test
+    public void testOrder() {
+        List<String> ordered = Arrays.asList("2.2.0.Alpha1", "2.2.0.Beta2", "2.2.0.Beta10", "2.2.0.CR1", "2.2.0.Final", "2.2.1.Final", "2.10.0.Final");
+        List<VersionedResource> resources = new ArrayList<>();
+        for (String name : ordered) {
+            resources.add(new VersionedResource(Versions.parseVersion(name), name));
+        }
+        Collections.shuffle(resources, new java.util.Random(42));
+        Collections.sort(resources);
+        List<String> sorted = new ArrayList<>();
+        for (VersionedResource resource : resources) {
+            sorted.add(0, resource.getResourceName());
+        }
+        assertEquals(ordered, sorted);
+    }
+
+    @Test
+    public void testCompareMatchesSemver() {
+        List<Version> versions = new ArrayList<>();
+        for (String version : new String[]{"1.0.0-alpha", "1.0.0-alpha.1", "1.0.0-alpha.beta", "1.0.0-beta.2", "1.0.0-beta.11",
+                "1.0.0-rc.1", "1.0.0", "1.0.1", "1.1.0-1", "1.1.0-x-y", "1.1.0-999999999", "1.1.0-2147483647",
+                "1.1.0-2147483648", "1.1.0-10000000000", "2.0.0+build.1"}) {
+            versions.add(Version.valueOf(version));
+        }
+        for (String name : new String[]{"2.2.0.Beta1", "2.2.0.Beta10", "2.4.0.Beta1-redhat", "2.4.0.CR1", "2.4.0.Final"}) {
+            versions.add(Versions.parse(name));
+        }
+        for (Version version : versions) {
+            for (Version other : versions) {
+                assertEquals(version + " " + other, Integer.signum(version.compareTo(other)), Integer.signum(Versions.compare(version, other)));
+            }
+        }
+    }
+
+    @Test
+    public void testUnparsable() {
+        assertNull(Versions.parseVersion("maven-metadata.xml"));
+        assertNull(Versions.parseVersion(""));
+        assertNull(Versions.parseVersion("12345678901.0.0"));
+    }
+
+    @Test
+    public void testMemoized() {
+        assertSame(Versions.parseVersion("2.7.0.Final"), Versions.parseVersion("2.7.0.Final"));
+    }
+
+    @Test
+    public void testParseDate() {
+        assertEquals(1408524253000L, Versions.parseDate("2014-08-20 08:44:13.0 UTC").getTime());
+    }
+}
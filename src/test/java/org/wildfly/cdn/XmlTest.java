@@ -0,0 +1,97 @@
+package org.wildfly.cdn;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @since 18/10/26
+ */
+public class XmlTest {
+
+    @Test
+    public void testListing() {
+        List<VersionedResource> versions = new ArrayList<>();
+        Xml.parseMetadata(XmlTest.class.getResourceAsStream("/maven-metadata.xml"), versions::add);
+
+        assertEquals(52, versions.size());
+        assertEquals("1.5.4.Final", versions.get(0).getResourceName());
+    }
+
+    @Test
+    public void testUnparsableVersionsAreSkipped() {
+        List<VersionedResource> versions = new ArrayList<>();
+        Xml.parseMetadata(listing(
+                item("2.6.5.Final", false, "2014-08-20 08:44:13.0 UTC"),
+                item("maven-metadata.xml", true, "2014-08-20 08:44:13.0 UTC"),
+                item("archetype", false, "2014-08-20 08:44:13.0 UTC"),
+                item("2.7.0.Beta1", false, "2014-08-20 08:44:13.0 UTC")), versions::add);
+
+        assertEquals(2, versions.size());
+        assertEquals("2.6.5.Final", versions.get(0).getResourceName());
+        assertEquals("2.7.0.Beta1", versions.get(1).getResourceName());
+    }
+
+    @Test
+    public void testDtdIsRejected() throws Exception {
+        File secret = File.createTempFile("xml-test", ".txt");
+        secret.deleteOnExit();
+        Files.write(secret.toPath(), "2.6.5.Final".getBytes(StandardCharsets.UTF_8));
+
+        String document = "<?xml version=\"1.0\"?>\n"
+                + "<!DOCTYPE content [<!ENTITY secret SYSTEM \"" + secret.toURI() + "\">]>\n"
+                + "<content><data><content-item><text>&secret;</text><leaf>false</leaf></content-item></data></content>";
+
+        List<VersionedResource> versions = new ArrayList<>();
+        try {
+            Xml.parseMetadata(new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8)), versions::add);
+            fail("the external entity must not be resolved");
+        } catch (RuntimeException e) {
+            assertTrue(versions.isEmpty());
+        }
+    }
+
+    @Test
+    public void testNewestSnapshotWins() {
+        VersionedResource newest = Xml.parseSnapshotMetadata(listing(
+                item("console-2.4.0-20140820.084413-6-resources.jar", true, "2014-08-20 08:44:13.0 UTC"),
+                item("console-2.4.0-20140901.101010-8-resources.jar", true, "2014-09-01 10:10:10.0 UTC"),
+                item("console-2.4.0-20140901.101010-8.war", true, "2014-09-02 10:10:10.0 UTC"),
+                item("console-2.4.0-20140901.101010-9-resources.jar", true, "2014-09-01 10:10:10.0 UTC"),
+                item("console-2.4.0-20140825.120000-7-resources.jar", true, "2014-08-25 12:00:00.0 UTC")),
+                "2.4.0-SNAPSHOT");
+
+        // listed after the newest, with the same timestamp
+        assertEquals("console-2.4.0-20140901.101010-8-resources.jar", newest.getResourceName());
+        assertEquals("http://repo/console-2.4.0-20140901.101010-8-resources.jar", newest.getArtefactUrl());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testSnapshotWithoutResourcesJar() {
+        Xml.parseSnapshotMetadata(listing(
+                item("console-2.4.0-20140820.084413-6.war", true, "2014-08-20 08:44:13.0 UTC")),
+                "2.4.0-SNAPSHOT");
+    }
+
+    private static InputStream listing(String... items) {
+        StringBuilder document = new StringBuilder("<content><data>");
+        for (String item : items) {
+            document.append(item);
+        }
+        document.append("</data></content>");
+        return new ByteArrayInputStream(document.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String item(String text, boolean leaf, String lastModified) {
+        return "<content-item><resourceURI>http://repo/" + text + "</resourceURI><text>" + text + "</text>"
+                + "<leaf>" + leaf + "</leaf><lastModified>" + lastModified + "</lastModified></content-item>";
+    }
+}